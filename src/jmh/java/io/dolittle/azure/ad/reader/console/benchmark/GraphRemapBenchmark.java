@@ -0,0 +1,114 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import io.dolittle.azure.ad.reader.console.client.GraphObjectReader;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping the Graph objects of a whole tenant into AdUser and AdGroup.
+ * The remap benchmarks map already parsed objects with Gson, the parse benchmarks start from the response text and
+ * compare a tree parse followed by the Gson mapping with the single streaming pass of GraphObjectReader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GraphRemapBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    private final Gson gson = new Gson();
+    private List<JsonObject> rawUsers;
+    private List<JsonObject> rawGroups;
+    private String usersPage;
+    private String groupsPage;
+
+    @Setup
+    public void setUp() {
+        SyntheticTenant tenant = new SyntheticTenant(users);
+        rawUsers = tenant.rawUsers;
+        rawGroups = tenant.rawGroups;
+        usersPage = toPage(rawUsers);
+        groupsPage = toPage(rawGroups);
+    }
+
+    @Benchmark
+    public void remapUsers(Blackhole blackhole) {
+        for (JsonObject rawUser : rawUsers) {
+            blackhole.consume(gson.fromJson(rawUser, AdUser.class));
+        }
+    }
+
+    @Benchmark
+    public void remapGroups(Blackhole blackhole) {
+        for (JsonObject rawGroup : rawGroups) {
+            blackhole.consume(gson.fromJson(rawGroup, AdGroup.class));
+        }
+    }
+
+    @Benchmark
+    public void parseTreeUsers(Blackhole blackhole) {
+        for (JsonElement value : JsonParser.parseString(usersPage).getAsJsonObject().getAsJsonArray("value")) {
+            blackhole.consume(gson.fromJson(value, AdUser.class));
+        }
+    }
+
+    @Benchmark
+    public List<AdUser> parseStreamUsers() throws IOException {
+        List<AdUser> adUsers = new ArrayList<>();
+        GraphObjectReader.readPage(new JsonReader(new StringReader(usersPage)), GraphObjectReader::readAdUser, adUsers);
+        return adUsers;
+    }
+
+    @Benchmark
+    public void parseTreeGroups(Blackhole blackhole) {
+        for (JsonElement value : JsonParser.parseString(groupsPage).getAsJsonObject().getAsJsonArray("value")) {
+            blackhole.consume(gson.fromJson(value, AdGroup.class));
+        }
+    }
+
+    @Benchmark
+    public List<AdGroup> parseStreamGroups() throws IOException {
+        List<AdGroup> adGroups = new ArrayList<>();
+        GraphObjectReader.readPage(new JsonReader(new StringReader(groupsPage)), GraphObjectReader::readAdGroup, adGroups);
+        return adGroups;
+    }
+
+    private static String toPage(List<JsonObject> values) {
+        JsonArray array = new JsonArray();
+        values.forEach(array::add);
+        JsonObject page = new JsonObject();
+        page.add("value", array);
+        return page.toString();
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.benchmark;
+
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the assignments of one principal, with the linear scan of RoleAssignmentList and with RoleAssignmentIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoleAssignmentJoinBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    private RoleAssignmentList roleAssignmentList;
+    private RoleAssignmentIndex roleAssignmentIndex;
+    private String[] principalIds;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SyntheticTenant tenant = new SyntheticTenant(users);
+        roleAssignmentList = tenant.roleAssignments;
+        roleAssignmentIndex = new RoleAssignmentIndex(roleAssignmentList.getValue());
+        principalIds = tenant.users.stream().map(adUser -> adUser.getId()).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public List<RoleAssignment> listScan() {
+        return roleAssignmentList.getRolesAssignmentsByPrincipalId(nextPrincipalId());
+    }
+
+    @Benchmark
+    public List<RoleAssignment> indexLookup() {
+        return roleAssignmentIndex.getByPrincipalId(nextPrincipalId());
+    }
+
+    @Benchmark
+    public RoleAssignmentIndex buildIndex() {
+        return new RoleAssignmentIndex(roleAssignmentList.getValue());
+    }
+
+    private String nextPrincipalId() {
+        next = next + 1 == principalIds.length ? 0 : next + 1;
+        return principalIds[next];
+    }
+}
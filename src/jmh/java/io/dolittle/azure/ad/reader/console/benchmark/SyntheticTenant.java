@@ -0,0 +1,168 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentList;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinitionProperty;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A generated directory with the shape of a real tenant: one group per ten users, five group memberships and
+ * one directory role per user, and a role assignment for every user and every group.
+ * The same seed always gives the same tenant.
+ */
+class SyntheticTenant {
+    private static final int USERS_PER_GROUP = 10;
+    private static final int GROUPS_PER_USER = 5;
+    private static final int ROLE_DEFINITIONS = 40;
+    private static final int DIRECTORY_ROLES = 20;
+
+    final List<AdUser> users = new ArrayList<>();
+    final List<AdGroup> groups = new ArrayList<>();
+    final List<JsonObject> rawUsers = new ArrayList<>();
+    final List<JsonObject> rawGroups = new ArrayList<>();
+    final RoleAssignmentList roleAssignments = new RoleAssignmentList();
+
+    SyntheticTenant(int userCount) {
+        Random random = new Random(userCount);
+        String subscription = "/subscriptions/" + uuid(random);
+
+        List<RoleDefinition> roleDefinitions = new ArrayList<>();
+        for (int i = 0; i < ROLE_DEFINITIONS; i++) {
+            roleDefinitions.add(roleDefinition(subscription, i, random));
+        }
+        List<Roles> directoryRoles = new ArrayList<>();
+        for (int i = 0; i < DIRECTORY_ROLES; i++) {
+            Roles roles = new Roles();
+            roles.setId(uuid(random));
+            roles.setDisplayName("Directory role " + i);
+            directoryRoles.add(roles);
+        }
+
+        int groupCount = Math.max(1, userCount / USERS_PER_GROUP);
+        for (int i = 0; i < groupCount; i++) {
+            AdGroup adGroup = new AdGroup();
+            adGroup.setId(uuid(random));
+            adGroup.setDisplayName("Group " + i);
+            adGroup.setDescription("Synthetic group number " + i);
+            adGroup.getGroupTypes().add("Unified");
+            groups.add(adGroup);
+            rawGroups.add(rawGroup(adGroup));
+        }
+
+        for (int i = 0; i < userCount; i++) {
+            AdUser adUser = new AdUser();
+            adUser.setId(uuid(random));
+            adUser.setDisplayName("User " + i);
+            adUser.setMail("user" + i + "@contoso.example");
+            adUser.setUserType(i % 20 == 0 ? "Guest" : "Member");
+            for (int g = 0; g < GROUPS_PER_USER; g++) {
+                AdGroup adGroup = groups.get(random.nextInt(groupCount));
+                Group group = new Group();
+                group.setId(adGroup.getId());
+                group.setDisplayName(adGroup.getDisplayName());
+                group.setDescription(adGroup.getDescription());
+                adUser.getGroup().add(group);
+
+                User member = new User();
+                member.setId(adUser.getId());
+                member.setDisplayName(adUser.getDisplayName());
+                adGroup.getUsers().add(member);
+            }
+            adUser.getRoles().add(directoryRoles.get(random.nextInt(DIRECTORY_ROLES)));
+            users.add(adUser);
+            rawUsers.add(rawUser(adUser));
+        }
+
+        users.forEach(adUser -> assign(adUser.getId(), roleDefinitions.get(random.nextInt(ROLE_DEFINITIONS)), subscription, random));
+        groups.forEach(adGroup -> assign(adGroup.getId(), roleDefinitions.get(random.nextInt(ROLE_DEFINITIONS)), subscription, random));
+
+        //Joined the way RoleAssignmentService does it, so the report benchmarks render realistic rows
+        RoleAssignmentIndex index = new RoleAssignmentIndex(roleAssignments.getValue());
+        users.forEach(adUser -> {
+            List<RoleAssignment> joined = new ArrayList<>(index.getByPrincipalId(adUser.getId()));
+            adUser.getGroup().forEach(group -> joined.addAll(index.getByPrincipalId(group.getId())));
+            adUser.setRoleAssignments(joined);
+        });
+        groups.forEach(adGroup -> adGroup.setRoleAssignments(index.getByPrincipalId(adGroup.getId())));
+    }
+
+    private void assign(String principalId, RoleDefinition roleDefinition, String subscription, Random random) {
+        RoleAssignmentProperty properties = new RoleAssignmentProperty();
+        properties.setPrincipalId(principalId);
+        properties.setRoleDefinitionId(roleDefinition.getId());
+        properties.setScope(subscription + "/resourceGroups/rg-" + random.nextInt(50));
+
+        RoleAssignment roleAssignment = new RoleAssignment();
+        roleAssignment.setId(subscription + "/providers/Microsoft.Authorization/roleAssignments/" + uuid(random));
+        roleAssignment.setProperties(properties);
+        roleAssignment.setRoleDefinition(roleDefinition);
+        roleAssignments.getValue().add(roleAssignment);
+    }
+
+    private static RoleDefinition roleDefinition(String subscription, int number, Random random) {
+        RoleDefinitionProperty properties = new RoleDefinitionProperty();
+        properties.setRoleName("Role " + number);
+        properties.setType(number % 4 == 0 ? "CustomRole" : "BuiltInRole");
+        properties.setDescription("Synthetic role definition number " + number);
+
+        RoleDefinition roleDefinition = new RoleDefinition();
+        roleDefinition.setId(subscription + "/providers/Microsoft.Authorization/roleDefinitions/" + uuid(random));
+        roleDefinition.setProperties(properties);
+        return roleDefinition;
+    }
+
+    //Shaped like the raw objects the Graph SDK hands out through getRawObject()
+    private static JsonObject rawUser(AdUser adUser) {
+        JsonObject json = new JsonObject();
+        json.addProperty("@odata.type", "#microsoft.graph.user");
+        json.addProperty("id", adUser.getId());
+        json.addProperty("displayName", adUser.getDisplayName());
+        json.addProperty("mail", adUser.getMail());
+        json.addProperty("userType", adUser.getUserType());
+        json.addProperty("userPrincipalName", adUser.getMail());
+        json.addProperty("givenName", "Given");
+        json.addProperty("surname", "Surname");
+        json.add("jobTitle", JsonNull.INSTANCE);
+        JsonArray businessPhones = new JsonArray();
+        businessPhones.add("+47 00 00 00 00");
+        json.add("businessPhones", businessPhones);
+        return json;
+    }
+
+    private static JsonObject rawGroup(AdGroup adGroup) {
+        JsonObject json = new JsonObject();
+        json.addProperty("@odata.type", "#microsoft.graph.group");
+        json.addProperty("id", adGroup.getId());
+        json.addProperty("displayName", adGroup.getDisplayName());
+        json.addProperty("description", adGroup.getDescription());
+        JsonArray groupTypes = new JsonArray();
+        adGroup.getGroupTypes().forEach(groupTypes::add);
+        json.add("groupTypes", groupTypes);
+        json.addProperty("mailEnabled", true);
+        json.addProperty("securityEnabled", false);
+        json.addProperty("createdDateTime", "2020-03-01T10:00:00Z");
+        return json;
+    }
+
+    private static String uuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+}
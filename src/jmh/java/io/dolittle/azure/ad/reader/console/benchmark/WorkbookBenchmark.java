@@ -0,0 +1,82 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.benchmark;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import io.dolittle.azure.ad.reader.console.service.WorkbookService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Rendering each report sheet into a streaming workbook, without saving it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class WorkbookBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    private WorkbookService workbookService;
+    private List<AdUser> adUsers;
+    private List<AdGroup> adGroups;
+
+    @Setup
+    public void setUp() {
+        SyntheticTenant tenant = new SyntheticTenant(users);
+        adUsers = tenant.users;
+        adGroups = tenant.groups;
+        CrawlMetrics crawlMetrics = new CrawlMetrics(new SimpleMeterRegistry(), false, "");
+        workbookService = new WorkbookService(crawlMetrics, "", true, 100, false, 1048576, true);
+    }
+
+    @Benchmark
+    public int populateUsersSheet() throws IOException {
+        return render(adUsers, workbookService::populateUsersSheet);
+    }
+
+    @Benchmark
+    public int populateAzureRolesSheet() throws IOException {
+        return render(adUsers, workbookService::populateAzureRolesSheet);
+    }
+
+    @Benchmark
+    public int populateAdGroupSheet() throws IOException {
+        return render(adGroups, workbookService::populateAdGroupSheet);
+    }
+
+    private static <T> int render(List<T> items, BiConsumer<List<T>, Workbook> populate) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try {
+            populate.accept(items, workbook);
+            return workbook.getSheetAt(0).getLastRowNum();
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+}
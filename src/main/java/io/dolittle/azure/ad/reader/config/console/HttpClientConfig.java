@@ -0,0 +1,98 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.config.console;
+
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One pooled HTTP client shared by the REST clients. Connections are kept alive between calls and
+ * gzip or deflate encoded responses are decoded by the client.
+ */
+@Configuration
+@Slf4j
+public class HttpClientConfig {
+
+    @Bean
+    public CloseableHttpClient httpClient(CrawlMetrics crawlMetrics,
+                                          @Value("${http.max-connections:64}") int maxConnections,
+                                          @Value("${http.max-connections-per-route:32}") int maxConnectionsPerRoute,
+                                          @Value("${http.connect-timeout:PT10S}") Duration connectTimeout,
+                                          @Value("${http.read-timeout:PT60S}") Duration readTimeout,
+                                          @Value("${http.connection-request-timeout:PT30S}") Duration connectionRequestTimeout,
+                                          @Value("${http.idle-timeout:PT30S}") Duration idleTimeout) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) connectTimeout.toMillis())
+                .setSocketTimeout((int) readTimeout.toMillis())
+                .setConnectionRequestTimeout((int) connectionRequestTimeout.toMillis())
+                .build();
+
+        log.info("HTTP connections: {} in total, {} per host", maxConnections, maxConnectionsPerRoute);
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .addInterceptorFirst(countReceivedBytes(crawlMetrics))
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .useSystemProperties()
+                .build();
+    }
+
+    //Added first so the bytes are counted as they come off the wire, before gzip decoding
+    private static HttpResponseInterceptor countReceivedBytes(CrawlMetrics crawlMetrics) {
+        return (response, context) -> {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return;
+            }
+            HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+            String host = target != null ? target.getHostName() : "unknown";
+            response.setEntity(new HttpEntityWrapper(entity) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    return new ProxyInputStream(super.getContent()) {
+                        @Override
+                        protected void afterRead(int n) {
+                            if (n > 0) {
+                                crawlMetrics.countBytes(host, n);
+                            }
+                        }
+                    };
+                }
+            });
+        };
+    }
+
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        restTemplate.getMessageConverters().add(0, new MappingJackson2HttpMessageConverter());
+        return restTemplate;
+    }
+}
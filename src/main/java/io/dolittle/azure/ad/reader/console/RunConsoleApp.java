@@ -3,235 +3,148 @@
 
 package io.dolittle.azure.ad.reader.console;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.microsoft.graph.models.extensions.DirectoryObject;
-import com.microsoft.graph.models.extensions.User;
-import com.microsoft.graph.requests.extensions.IDirectoryObjectCollectionWithReferencesPage;
-import com.microsoft.graph.requests.extensions.IGroupCollectionPage;
-import com.microsoft.graph.requests.extensions.IUserCollectionPage;
-import io.dolittle.azure.ad.reader.console.client.AzureMgtClient;
-import io.dolittle.azure.ad.reader.console.client.GraphClient;
 import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
-import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
-import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentList;
-import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
 import io.dolittle.azure.ad.reader.console.model.user.AdUser;
-import io.dolittle.azure.ad.reader.console.model.user.Group;
-import io.dolittle.azure.ad.reader.console.model.user.Roles;
-import io.dolittle.azure.ad.reader.console.service.WorkbookService;
+import io.dolittle.azure.ad.reader.console.query.AccessQueryServer;
+import io.dolittle.azure.ad.reader.console.report.ReportSink;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import io.dolittle.azure.ad.reader.console.service.DiffService;
+import io.dolittle.azure.ad.reader.console.service.DirectoryLoader;
+import io.dolittle.azure.ad.reader.console.service.ReportPipeline;
+import io.dolittle.azure.ad.reader.console.service.ReportSinkFactory;
+import io.dolittle.azure.ad.reader.console.service.SnapshotService;
+import io.dolittle.azure.ad.reader.console.snapshot.SnapshotReader;
+import io.dolittle.azure.ad.reader.console.store.DirectoryStore;
+import io.dolittle.azure.ad.reader.console.store.SpillStore;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 @Component
 @Slf4j
 public class RunConsoleApp implements ApplicationRunner {
-    private final WorkbookService workbookService;
-    private final AzureMgtClient azureMgtClient;
-    private final GraphClient graphClient;
-    private final Gson gson = new Gson();
+    private static final String REPORT_NAME = "Azure-AD-Users";
+    private final ReportSinkFactory reportSinkFactory;
+    private final DirectoryLoader directoryLoader;
+    private final ReportPipeline reportPipeline;
+    private final SnapshotService snapshotService;
+    private final DiffService diffService;
+    private final AccessQueryServer accessQueryServer;
+    private final CrawlMetrics crawlMetrics;
+    private final boolean pipelineEnabled;
+    private final boolean incrementalSync;
+    private final boolean queryServerEnabled;
+    private final boolean spillEnabled;
 
     @Autowired
-    public RunConsoleApp(WorkbookService workbookService, AzureMgtClient azureMgtClient, GraphClient graphClient) {
-        this.workbookService = workbookService;
-        this.azureMgtClient = azureMgtClient;
-        this.graphClient = graphClient;
+    public RunConsoleApp(ReportSinkFactory reportSinkFactory, DirectoryLoader directoryLoader,
+                         ReportPipeline reportPipeline, SnapshotService snapshotService,
+                         DiffService diffService, AccessQueryServer accessQueryServer, CrawlMetrics crawlMetrics,
+                         @Value("${pipeline.enabled:true}") boolean pipelineEnabled,
+                         @Value("${sync.incremental:false}") boolean incrementalSync,
+                         @Value("${query.server.enabled:false}") boolean queryServerEnabled,
+                         @Value("${store.spill.enabled:false}") boolean spillEnabled,
+                         @Value("${membership.local-closure:false}") boolean localClosure) {
+        this.reportSinkFactory = reportSinkFactory;
+        this.directoryLoader = directoryLoader;
+        this.reportPipeline = reportPipeline;
+        this.snapshotService = snapshotService;
+        this.diffService = diffService;
+        this.accessQueryServer = accessQueryServer;
+        this.crawlMetrics = crawlMetrics;
+        this.pipelineEnabled = pipelineEnabled;
+        this.incrementalSync = incrementalSync;
+        this.queryServerEnabled = queryServerEnabled;
+        this.spillEnabled = spillEnabled;
+        if (spillEnabled && incrementalSync) {
+            log.warn("store.spill.enabled is ignored with sync.incremental, the synced directory is kept in memory");
+        }
+        if (spillEnabled && localClosure) {
+            log.warn("membership.local-closure keeps the whole membership graph in memory, the spill store does not bound it");
+        }
     }
 
     @Override
     public void run(ApplicationArguments args) {
-
-        //For Testing
-//        AdUser currentAdUser = getCurrentAdUser();
-//        RoleAssignmentList allRoleAssignments = getAllRoleAssignments();
-//
-//        List<RoleAssignment> rolesAssignmentsByPrincipalId = allRoleAssignments.getRolesAssignmentsByPrincipalId(currentAdUser.getId());
-//        populateRoleDefinitions(rolesAssignmentsByPrincipalId);
-//        currentAdUser.setRoleAssignments(rolesAssignmentsByPrincipalId);
-
-        //Prod
-        List<AdUser> adUsers = getAdUsers();
-        List<AdGroup> adGroups = getAdGroups();
-
-        RoleAssignmentList allRoleAssignments = getAllRoleAssignments();
-
-        populateAdUserRoleAssignments(adUsers, allRoleAssignments);
-        populateAdGroupRoleAssignments(adGroups, allRoleAssignments);
-
-        XSSFWorkbook workbook = workbookService.createWorkbook();
-        workbookService.populateUsersSheet(adUsers, workbook);
-        workbookService.populateAzureRolesSheet(adUsers, workbook);
-        workbookService.populateAdGroupSheet(adGroups, workbook);
-        workbookService.saveWorkbook(workbook, "Azure-AD-Users");
-
+        if (queryServerEnabled) {
+            //Answers queries until the application is shut down
+            accessQueryServer.run();
+        } else {
+            try {
+                crawlMetrics.time(CrawlMetrics.PHASE_RUN, this::runReport);
+            } finally {
+                crawlMetrics.writeReport();
+            }
+        }
         log.info("done");
     }
 
-    private RoleAssignmentList getAllRoleAssignments() {
-        RoleAssignmentList allRoleAssignments = azureMgtClient.getAllRoleAssignments();
-
-        log.info("Got {} roleAssignments: ", allRoleAssignments.getValue().size());
-        return allRoleAssignments;
-    }
-
-    private void populateAdGroupRoleAssignments(List<AdGroup> adGroups, RoleAssignmentList roleAssignmentList) {
-        adGroups.forEach(adGroup -> {
-            List<RoleAssignment> raByPrincipalIdList = roleAssignmentList.getRolesAssignmentsByPrincipalId(adGroup.getId());
-            raByPrincipalIdList.forEach(roleAssignment -> roleAssignment.setPrincipalType(adGroup.getDisplayName()));
-            populateRoleDefinitions(raByPrincipalIdList);
-            adGroup.setRoleAssignments(raByPrincipalIdList);
-        });
-    }
-
-    private void populateAdUserRoleAssignments(List<AdUser> adUsers, RoleAssignmentList roleAssignmentList) {
-        for (AdUser adUser : adUsers) {
-            List<RoleAssignment> raByPrincipalIdList = roleAssignmentList.getRolesAssignmentsByPrincipalId(adUser.getId());
-            raByPrincipalIdList.forEach(roleAssignment -> roleAssignment.setPrincipalType("U"));
+    private void runReport() {
+        if (directoryLoader.isSnapshotSource()) {
+            writeReportFromSnapshot();
+            return;
+        }
 
-            List<Group> groupList = adUser.getGroup();
-            for (Group group : groupList) {
-                List<RoleAssignment> raByGroupIdList = roleAssignmentList.getRolesAssignmentsByPrincipalId(group.getId());
-                raByGroupIdList.forEach(roleAssignment -> roleAssignment.setPrincipalType(group.getDisplayName()));
-                raByPrincipalIdList.addAll(raByGroupIdList);
+        //The incremental sync keeps its state in memory anyway, the spill store only helps a full crawl.
+        //It is asked for explicitly, so it goes before the pipeline, which is on by default
+        if (spillEnabled && !incrementalSync) {
+            try (SpillStore spillStore = directoryLoader.loadSpilled()) {
+                writeReport(spillStore.getUsers(), spillStore.getGroups());
+                diff(spillStore.getUsers(), spillStore.getGroups(), spillStore.getRoleAssignmentIndex());
             }
-            populateRoleDefinitions(raByPrincipalIdList);
-            adUser.setRoleAssignments(raByPrincipalIdList);
+            return;
         }
-    }
 
-    private void populateRoleDefinitions(List<RoleAssignment> roleAssignmentList) {
-        for (RoleAssignment ra : roleAssignmentList) {
-            RoleDefinition roleDefinition = azureMgtClient.getRoleDefinition(ra.getProperties().getRoleDefinitionId());
-            ra.setRoleDefinition(roleDefinition);
+        //The incremental sync and the diff need the whole directory, so they always take the in-memory path
+        if (pipelineEnabled && !incrementalSync && !diffService.isEnabled()) {
+            reportPipeline.run(REPORT_NAME);
+            return;
         }
-    }
-
-    //For testing
-    private AdUser getCurrentAdUser() {
-        User user = graphClient.getCurrentUser();
-        AdUser adUser = gson.fromJson(user.getRawObject(), AdUser.class);
-        populateDirectoryObjects(adUser);
-        log.info("Group Count: {}", adUser.getGroup().size());
-        log.info("Role Count: {}", adUser.getRoles().size());
-        return adUser;
-    }
 
-    private List<AdUser> getAdUsers() {
-        List<AdUser> adUsers = listUsers();
-        log.info("Total users: {}", adUsers.size());
-        return adUsers;
+        //Prod
+        DirectoryStore directoryStore = directoryLoader.load();
+        writeReport(directoryStore.getUsers(), directoryStore.getGroups());
+        diff(directoryStore.getUsers(), directoryStore.getGroups(), directoryStore.getRoleAssignmentIndex());
     }
 
-    private List<AdUser> listUsers() {
-        log.info("Listing all users:");
-        IUserCollectionPage pagedUsers = graphClient.getAllUsers();
-        List<User> userList = pagedUsers.getCurrentPage();
-        List<AdUser> adUserList = new ArrayList<>();
-        while (userList != null) {
-            for (User user : userList) {
-                //log.info("User: {}", user.displayName);
-                AdUser adUser = gson.fromJson(user.getRawObject(), AdUser.class);
-                populateDirectoryObjects(adUser);
-                adUserList.add(adUser);
+    private void writeReport(Iterable<AdUser> adUsers, Iterable<AdGroup> adGroups) {
+        try (ReportSink reportSink = reportSinkFactory.open(REPORT_NAME)) {
+            long start = System.nanoTime();
+            for (AdUser adUser : adUsers) {
+                reportSink.writeUser(adUser);
             }
-
-            if (pagedUsers.getNextPage() == null) {
-                break;
+            for (AdGroup adGroup : adGroups) {
+                reportSink.writeGroup(adGroup);
             }
-
-            log.info("nextpage: {}", pagedUsers.getNextPage().getRequestUrl());
-            pagedUsers = pagedUsers.getNextPage().buildRequest().get();
-            userList = pagedUsers.getCurrentPage();
+            reportSink.complete();
+            crawlMetrics.recordPhase(CrawlMetrics.PHASE_RENDER, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write report", e);
         }
-        return adUserList;
     }
 
-    private void populateDirectoryObjects(AdUser adUser) {
-        IDirectoryObjectCollectionWithReferencesPage pagedGroups = graphClient.getUserMemberOf(adUser.getId());
-        List<DirectoryObject> ugList = pagedGroups.getCurrentPage();
-
-        while (ugList != null) {
-
-            List<JsonObject> filteredGroups = ugList.stream().filter(directoryObject -> directoryObject.oDataType.equals(GraphClient.oDataType.GROUP.str())).map(DirectoryObject::getRawObject).collect(Collectors.toList());
-            filteredGroups.forEach(jsonObject -> {
-                Group group = gson.fromJson(jsonObject, Group.class);
-                adUser.getGroup().add(group);
-            });
-
-            filteredGroups = ugList.stream().filter(directoryObject -> directoryObject.oDataType.equals(GraphClient.oDataType.ROLES.str())).map(DirectoryObject::getRawObject).collect(Collectors.toList());
-            filteredGroups.forEach(jsonObject -> {
-                Roles roles = gson.fromJson(jsonObject, Roles.class);
-                adUser.getRoles().add(roles);
-            });
-
-            if (pagedGroups.getNextPage() == null) {
-                break;
-            }
-            log.info("nextpage: {}", pagedGroups.getNextPage().getRequestUrl());
-            pagedGroups = pagedGroups.getNextPage().buildRequest().get();
-            ugList = pagedGroups.getCurrentPage();
+    private void diff(Iterable<AdUser> adUsers, Iterable<AdGroup> adGroups, RoleAssignmentIndex roleAssignmentIndex) {
+        if (diffService.isEnabled()) {
+            crawlMetrics.time(CrawlMetrics.PHASE_DIFF, () -> diffService.diff(adUsers, adGroups, roleAssignmentIndex));
         }
-
-    }
-
-    private List<AdGroup> getAdGroups() {
-        List<AdGroup> adGroups = listGroups();
-        log.info("Total groups: {}", adGroups.size());
-        return adGroups;
     }
 
-    private List<AdGroup> listGroups() {
-        log.info("Listing groups:");
-        IGroupCollectionPage pagedGroups = graphClient.getAllGroups();
-        List<com.microsoft.graph.models.extensions.Group> groupList = pagedGroups.getCurrentPage();
-        List<AdGroup> adGroupList = new ArrayList<>();
-
-        while (groupList != null) {
-
-            groupList.forEach(group -> {
-                AdGroup adGroup = gson.fromJson(group.getRawObject(), AdGroup.class);
-                populateAdGroupMembers(adGroup);
-                adGroupList.add(adGroup);
-            });
-
-            if (pagedGroups.getNextPage() == null) {
-                break;
-            }
-
-            log.info("nextpage: {}", pagedGroups.getNextPage().getRequestUrl());
-            pagedGroups = pagedGroups.getNextPage().buildRequest().get();
-            groupList = pagedGroups.getCurrentPage();
-        }
-        return adGroupList;
-    }
-
-    private void populateAdGroupMembers(AdGroup adGroup) {
-        IDirectoryObjectCollectionWithReferencesPage pagedMembers = graphClient.getGroupMembers(adGroup.getId());
-        List<DirectoryObject> membersList = pagedMembers.getCurrentPage();
-        List<io.dolittle.azure.ad.reader.console.model.group.User> userList = new ArrayList<>();
-        while (membersList != null) {
-            //log.info("parsing members for groups");
-            membersList.forEach(dirObj -> {
-                io.dolittle.azure.ad.reader.console.model.group.User user = gson.fromJson(dirObj.getRawObject(), io.dolittle.azure.ad.reader.console.model.group.User.class);
-                userList.add(user);
-            });
-
-
-            if (pagedMembers.getNextPage() == null) {
-                break;
+    private void writeReportFromSnapshot() {
+        try (SnapshotReader snapshotReader = snapshotService.openReader()) {
+            log.info("Snapshot holds {} users and {} groups", snapshotReader.getUserCount(), snapshotReader.getGroupCount());
+            writeReport(snapshotReader.getUsers(), snapshotReader.getGroups());
+            if (diffService.isEnabled()) {
+                diff(snapshotReader.getUsers(), snapshotReader.getGroups(), new RoleAssignmentIndex(snapshotReader.getRoleAssignments()));
             }
-            log.info("nextpage: {}", pagedMembers.getNextPage().getRequestUrl());
-            pagedMembers = pagedMembers.getNextPage().buildRequest().get();
-            membersList = pagedMembers.getCurrentPage();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read snapshot", e);
         }
-        adGroup.setUsers(userList);
     }
 }
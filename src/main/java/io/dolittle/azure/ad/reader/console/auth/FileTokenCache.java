@@ -0,0 +1,91 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.auth;
+
+import com.microsoft.aad.msal4j.ITokenCacheAccessAspect;
+import com.microsoft.aad.msal4j.ITokenCacheAccessContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Keeps the MSAL token cache, including the refresh tokens, in a file so later runs can sign in silently.
+ * The file and its folder are created readable by the owner only.
+ */
+@Slf4j
+public class FileTokenCache implements ITokenCacheAccessAspect {
+    private final Path cacheFile;
+
+    public FileTokenCache(File cacheFile) {
+        this.cacheFile = cacheFile.toPath();
+    }
+
+    @Override
+    public void beforeCacheAccess(ITokenCacheAccessContext context) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return;
+        }
+        try {
+            context.tokenCache().deserialize(new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.error("Unable to read token cache", e);
+        }
+    }
+
+    @Override
+    public void afterCacheAccess(ITokenCacheAccessContext context) {
+        if (!context.hasCacheChanged()) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            Path directory = cacheFile.toAbsolutePath().getParent();
+            if (!Files.isDirectory(directory)) {
+                createOwnerOnly(directory);
+            }
+            //Owner only from the start, the refresh token is never readable by others
+            tmp = createOwnerOnlyTempFile(directory, cacheFile.getFileName().toString());
+            Files.write(tmp, context.tokenCache().serialize().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Unable to store token cache", e);
+            deleteQuietly(tmp);
+        }
+    }
+
+    private static void createOwnerOnly(Path directory) throws IOException {
+        try {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            log.debug("File permissions not supported for {}", directory);
+            Files.createDirectories(directory);
+        }
+    }
+
+    private static Path createOwnerOnlyTempFile(Path directory, String prefix) throws IOException {
+        try {
+            return Files.createTempFile(directory, prefix, ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            log.debug("File permissions not supported for {}", directory);
+            return Files.createTempFile(directory, prefix, ".tmp");
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Unable to delete {}", file, e);
+        }
+    }
+}
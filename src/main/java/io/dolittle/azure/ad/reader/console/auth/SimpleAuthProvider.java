@@ -6,16 +6,21 @@ package io.dolittle.azure.ad.reader.console.auth;
 import com.microsoft.graph.authentication.IAuthenticationProvider;
 import com.microsoft.graph.http.IHttpRequest;
 
+import java.util.function.Supplier;
+
+/**
+ * Asks for the token on every request, so a token renewed during a long crawl is picked up by the Graph client.
+ */
 public class SimpleAuthProvider implements IAuthenticationProvider {
 
-    private final String accessToken;
+    private final Supplier<String> accessToken;
 
-    public SimpleAuthProvider(String accessToken) {
+    public SimpleAuthProvider(Supplier<String> accessToken) {
         this.accessToken = accessToken;
     }
 
     @Override
     public void authenticateRequest(IHttpRequest iHttpRequest) {
-        iHttpRequest.addHeader("Authorization", "Bearer " + accessToken);
+        iHttpRequest.addHeader("Authorization", "Bearer " + accessToken.get());
     }
 }
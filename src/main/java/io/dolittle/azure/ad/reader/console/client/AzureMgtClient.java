@@ -3,87 +3,259 @@
 
 package io.dolittle.azure.ad.reader.console.client;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
 import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentList;
 import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinitionList;
 import io.dolittle.azure.ad.reader.console.service.AuthenticationService;
+import io.dolittle.azure.ad.reader.console.service.CrawlExecutor;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
 import io.dolittle.azure.ad.reader.console.util.RESTUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @Slf4j
 public class AzureMgtClient {
 
     private static final String BASE_URL = "https://management.azure.com";
-    private final String SUB_ID;
+    private final List<String> SUB_IDS;
+    private final String MANAGEMENT_GROUP_ID;
     private final AuthenticationService authenticationService;
     //private String path_RoleAssignments = "/subscriptions/%s/providers/Microsoft.Authorization/roleAssignments?api-version=2015-07-01&$filter=assignedTo('%s')";
     private static final String path_RoleAssignments = "/subscriptions/%s/providers/Microsoft.Authorization/roleAssignments?api-version=2015-07-01";
+    private static final String path_RoleDefinitions = "/subscriptions/%s/providers/Microsoft.Authorization/roleDefinitions?api-version=2015-07-01";
     private static final String path_RoleDefinitionById = "%s?api-version=2015-07-01";
-    private HashMap<String, RoleDefinition> roleDefinitionCache = new HashMap<>();
+    private static final String path_ManagementGroupDescendants = "/providers/Microsoft.Management/managementGroups/%s/descendants?api-version=2020-02-01";
+    private static final String SUBSCRIPTION_TYPE_SUFFIX = "/subscriptions";
+    private final RoleDefinitionCache roleDefinitionCache;
+    private final CrawlExecutor crawlExecutor;
+    private final RestTemplate restTemplate;
+    private final RequestLimiter requestLimiter;
+    private final CrawlMetrics crawlMetrics;
+    //Built like the mapper of the RestTemplate converter, which registers the java.time module for createdOn and updatedOn
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private volatile List<String> subscriptionIds;
 
     @Autowired
-    public AzureMgtClient(@Value("${azure.app-subscription-id}") String subscriptionId, AuthenticationService authenticationService) {
-        SUB_ID = subscriptionId;
+    public AzureMgtClient(@Value("${azure.app-subscription-id}") String subscriptionIds,
+                          @Value("${azure.management-group-id:}") String managementGroupId,
+                          AuthenticationService authenticationService,
+                          RoleDefinitionCache roleDefinitionCache, CrawlExecutor crawlExecutor, RestTemplate restTemplate,
+                          RequestLimiter requestLimiter, CrawlMetrics crawlMetrics) {
+        SUB_IDS = Arrays.stream(subscriptionIds.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toList());
+        MANAGEMENT_GROUP_ID = managementGroupId.trim();
         this.authenticationService = authenticationService;
+        this.roleDefinitionCache = roleDefinitionCache;
+        this.crawlExecutor = crawlExecutor;
+        this.restTemplate = restTemplate;
+        this.requestLimiter = requestLimiter;
+        this.crawlMetrics = crawlMetrics;
     }
 
-    public RoleAssignmentList getAllRoleAssignments() {
+    /**
+     * @return the configured subscriptions followed by every subscription below the configured management group
+     */
+    public List<String> getSubscriptionIds() {
+        if (subscriptionIds == null) {
+            synchronized (this) {
+                if (subscriptionIds == null) {
+                    Set<String> ids = new LinkedHashSet<>();
+                    SUB_IDS.forEach(id -> ids.add(id.toLowerCase(Locale.ROOT)));
+                    if (!MANAGEMENT_GROUP_ID.isEmpty()) {
+                        ids.addAll(getManagementGroupSubscriptionIds(MANAGEMENT_GROUP_ID));
+                    }
+                    log.info("Scanning {} subscriptions", ids.size());
+                    subscriptionIds = new ArrayList<>(ids);
+                }
+            }
+        }
+        return subscriptionIds;
+    }
 
-        String url = getURL(SUB_ID, path_RoleAssignments);
+    private List<String> getManagementGroupSubscriptionIds(String managementGroupId) {
+        List<String> ids = new ArrayList<>();
+        String url = getURL(managementGroupId, path_ManagementGroupDescendants);
 
-        log.info("URL: {}", url);
+        while (url != null) {
+            String pageUrl = url;
+            log.info("URL: {}", pageUrl);
+            ResponseEntity<JsonNode> responseEntity;
+            responseEntity = requestLimiter.execute(RequestLimiter.Endpoint.ARM, () -> restTemplate.exchange(pageUrl, HttpMethod.GET, requestEntity(), JsonNode.class));
+            JsonNode page = responseEntity.getBody();
+            if (page == null) {
+                break;
+            }
+            for (JsonNode descendant : page.path("value")) {
+                if (descendant.path("type").asText().endsWith(SUBSCRIPTION_TYPE_SUFFIX)) {
+                    ids.add(descendant.path("name").asText().toLowerCase(Locale.ROOT));
+                }
+            }
+            url = page.hasNonNull("nextLink") ? page.get("nextLink").asText() : null;
+        }
+        log.info("Management group {} holds {} subscriptions", managementGroupId, ids.size());
+        return ids;
+    }
 
-        RestTemplate restTemplate = RESTUtil.getRestTemplate();
-        HttpHeaders headerWithBearerToken = RESTUtil.getHeaderWithBearerToken(getToken());
-        HttpEntity<String> requestEntity = new HttpEntity<>("", headerWithBearerToken);
+    /**
+     * Follows nextLink through all role assignment pages of a subscription. The next page is requested as soon as the
+     * current one has been read, so it is on its way while the consumer handles the current page.
+     * Pages of one subscription reach the consumer in order, one at a time; different subscriptions run concurrently.
+     */
+    public CompletableFuture<Void> forEachRoleAssignmentPage(String subscriptionId, Consumer<List<RoleAssignment>> consumer) {
+        return readRoleAssignmentPages(crawlExecutor.supply(getURL(subscriptionId, path_RoleAssignments), this::getRoleAssignmentPage), consumer);
+    }
 
-        ResponseEntity<RoleAssignmentList> responseEntity;
-        responseEntity = restTemplate.exchange(url, HttpMethod.GET, requestEntity, RoleAssignmentList.class);
+    private CompletableFuture<Void> readRoleAssignmentPages(CompletableFuture<RoleAssignmentList> pendingPage, Consumer<List<RoleAssignment>> consumer) {
+        return pendingPage.thenCompose(page -> {
+            CompletableFuture<RoleAssignmentList> nextPage = page.getNextLink() != null ? crawlExecutor.supply(page.getNextLink(), this::getRoleAssignmentPage) : null;
+            consumer.accept(page.getValue());
+            return nextPage != null ? readRoleAssignmentPages(nextPage, consumer) : CompletableFuture.completedFuture(null);
+        });
+    }
 
-        return responseEntity.getBody();
+    private RoleAssignmentList getRoleAssignmentPage(String url) {
+        log.info("URL: {}", url);
 
+        RoleAssignmentList page = requestLimiter.execute(RequestLimiter.Endpoint.ARM, () -> restTemplate.execute(url, HttpMethod.GET,
+                request -> request.getHeaders().putAll(RESTUtil.getHeaderWithBearerToken(getToken())),
+                response -> readRoleAssignmentPage(response.getBody())));
+        crawlMetrics.countPage("role-assignments");
+        log.info("Got {} roleAssignments", page == null ? 0 : page.getValue().size());
+        return page != null ? page : new RoleAssignmentList();
+    }
+
+    //Reads the assignments one by one from the response stream instead of buffering the whole body first
+    private RoleAssignmentList readRoleAssignmentPage(InputStream body) throws IOException {
+        RoleAssignmentList page = new RoleAssignmentList();
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a role assignment page");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("value".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        page.getValue().add(objectMapper.readValue(parser, RoleAssignment.class));
+                    }
+                } else if ("nextLink".equals(field)) {
+                    page.setNextLink(parser.getValueAsString());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return page;
     }
 
     private String getToken() {
         return authenticationService.authenticate(AuthenticationService.TokenSource.MGT);
     }
 
+    //Built on every attempt, so a retry after a long backoff does not send an expired token
+    private HttpEntity<String> requestEntity() {
+        return new HttpEntity<>("", RESTUtil.getHeaderWithBearerToken(getToken()));
+    }
+
+    /**
+     * Loads every role definition of the subscription with one list call, or from the stored cache when it is still fresh.
+     */
+    public void preloadRoleDefinitions() {
+        roleDefinitionCache.load(this::getAllRoleDefinitions);
+    }
+
+    /**
+     * Lists the role definitions of all scanned subscriptions concurrently. Built-in definitions are returned by every
+     * subscription and only kept once.
+     */
+    public List<RoleDefinition> getAllRoleDefinitions() {
+        List<CompletableFuture<List<RoleDefinition>>> futures = getSubscriptionIds().stream()
+                .map(subscriptionId -> crawlExecutor.supply(subscriptionId, this::getRoleDefinitions))
+                .collect(Collectors.toList());
+
+        Set<String> seen = new LinkedHashSet<>();
+        List<RoleDefinition> roleDefinitions = new ArrayList<>();
+        for (CompletableFuture<List<RoleDefinition>> future : futures) {
+            for (RoleDefinition roleDefinition : future.join()) {
+                if (seen.add(RoleDefinitionCache.key(roleDefinition.getId()))) {
+                    roleDefinitions.add(roleDefinition);
+                }
+            }
+        }
+        return roleDefinitions;
+    }
+
+    private List<RoleDefinition> getRoleDefinitions(String subscriptionId) {
+        List<RoleDefinition> roleDefinitions = new ArrayList<>();
+        String url = getURL(subscriptionId, path_RoleDefinitions);
+
+        while (url != null) {
+            String pageUrl = url;
+            log.info("URL: {}", pageUrl);
+            ResponseEntity<RoleDefinitionList> responseEntity;
+            responseEntity = requestLimiter.execute(RequestLimiter.Endpoint.ARM, () -> restTemplate.exchange(pageUrl, HttpMethod.GET, requestEntity(), RoleDefinitionList.class));
+            RoleDefinitionList page = responseEntity.getBody();
+            crawlMetrics.countPage("role-definitions");
+            if (page == null) {
+                break;
+            }
+            roleDefinitions.addAll(page.getValue());
+            url = page.getNextLink();
+        }
+        return roleDefinitions;
+    }
+
     public RoleDefinition getRoleDefinition(String roleDefinitionId) {
-        if (isInRoleDefinitionCache(roleDefinitionId)) {
-            return roleDefinitionCache.get(roleDefinitionId);
+        RoleDefinition cached = roleDefinitionCache.get(roleDefinitionId);
+        crawlMetrics.countCacheLookup("role-definitions", cached != null);
+        if (cached != null) {
+            return cached;
+        }
+
+        preloadRoleDefinitions();
+        cached = roleDefinitionCache.get(roleDefinitionId);
+        if (cached != null) {
+            return cached;
         }
 
+        //Not part of the subscription list, e.g. a definition from another scope
         String url = getURL(roleDefinitionId, path_RoleDefinitionById);
 
         log.info("URL: {}", url);
 
-        RestTemplate restTemplate = RESTUtil.getRestTemplate();
-        HttpHeaders headerWithBearerToken = RESTUtil.getHeaderWithBearerToken(getToken());
-        HttpEntity<String> requestEntity = new HttpEntity<>("", headerWithBearerToken);
-
         ResponseEntity<RoleDefinition> responseEntity;
-        responseEntity = restTemplate.exchange(url, HttpMethod.GET, requestEntity, RoleDefinition.class);
+        responseEntity = requestLimiter.execute(RequestLimiter.Endpoint.ARM, () -> restTemplate.exchange(url, HttpMethod.GET, requestEntity(), RoleDefinition.class));
         RoleDefinition roleDefinition = responseEntity.getBody();
 
         assert roleDefinition != null;
-        roleDefinitionCache.put(roleDefinition.getId(), roleDefinition);
-
-        return roleDefinition;
-    }
-
-    private Boolean isInRoleDefinitionCache(String roleDefinitionId) {
-        RoleDefinition roleDefinition = roleDefinitionCache.get(roleDefinitionId);
-        return roleDefinition != null;
+        return roleDefinitionCache.put(roleDefinitionId, roleDefinition);
     }
 
     private String getURL(String value, String template) {
@@ -0,0 +1,266 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves membership lookups for many principals through the Graph JSON batching endpoint.
+ * Responses are read as a stream straight into the reader's models.
+ * https://docs.microsoft.com/en-us/graph/json-batching
+ */
+@Component
+@Slf4j
+public class GraphBatchClient {
+    //Graph rejects batches with more than 20 requests
+    private static final int MAX_BATCH_SIZE = 20;
+    private static final String path_Batch = "/$batch";
+    private static final String path_UserMemberOf = "/users/%s/transitiveMemberOf";
+    private static final String path_GroupMembers = "/groups/%s/transitiveMembers";
+    private static final String path_GroupDirectMembers = "/groups/%s/members";
+    private static final String path_DirectoryRoleMembers = "/directoryRoles/%s/members";
+
+    private final GraphRestClient graphRestClient;
+    private final RequestLimiter requestLimiter;
+    private final int batchSize;
+    private final CrawlMetrics crawlMetrics;
+
+    @Autowired
+    public GraphBatchClient(GraphRestClient graphRestClient, RequestLimiter requestLimiter, CrawlMetrics crawlMetrics,
+                            @Value("${graph.batch.size:20}") int batchSize) {
+        this.graphRestClient = graphRestClient;
+        this.requestLimiter = requestLimiter;
+        this.crawlMetrics = crawlMetrics;
+        this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the groups and directory roles each user is member of, keyed by user id
+     */
+    public Map<String, List<BaseData>> getUserMemberOf(Collection<String> userIds) {
+        return collect(userIds, path_UserMemberOf, GraphObjectReader::readMembership);
+    }
+
+    /**
+     * @return the transitive members keyed by group id
+     */
+    public Map<String, List<User>> getGroupMembers(Collection<String> groupIds) {
+        return collect(groupIds, path_GroupMembers, GraphObjectReader::readMember);
+    }
+
+    /**
+     * @return the direct members keyed by group id
+     */
+    public Map<String, List<User>> getGroupDirectMembers(Collection<String> groupIds) {
+        return collect(groupIds, path_GroupDirectMembers, GraphObjectReader::readMember);
+    }
+
+    /**
+     * @return the direct members keyed by directory role id
+     */
+    public Map<String, List<User>> getDirectoryRoleMembers(Collection<String> directoryRoleIds) {
+        return collect(directoryRoleIds, path_DirectoryRoleMembers, GraphObjectReader::readMember);
+    }
+
+    /**
+     * Pages through the collection at pathTemplate for every id, reading the values with parser.
+     * Every id gets an entry, an empty list when the collection is empty.
+     * Throttled items hold the Graph endpoint off through the {@link RequestLimiter} and go into the next batch,
+     * other failed items are retried on their own.
+     */
+    private <T> Map<String, List<T>> collect(Collection<String> ids, String pathTemplate, GraphObjectReader.Parser<T> parser) {
+        Map<String, List<T>> results = new HashMap<>();
+        Map<String, String> pending = new LinkedHashMap<>();
+        for (String id : ids) {
+            results.put(id, new ArrayList<>());
+            pending.put(id, String.format(pathTemplate, id));
+        }
+
+        int throttledRounds = 0;
+        while (!pending.isEmpty()) {
+            Map<String, String> nextPages = new LinkedHashMap<>();
+            Map<String, String> failed = new LinkedHashMap<>();
+            Throttled throttled = new Throttled();
+
+            List<Map.Entry<String, String>> entries = new ArrayList<>(pending.entrySet());
+            for (int from = 0; from < entries.size(); from += batchSize) {
+                List<Map.Entry<String, String>> chunk = entries.subList(from, Math.min(from + batchSize, entries.size()));
+                sendBatch(chunk, parser, results, nextPages, failed, throttled);
+            }
+
+            if (!throttled.paths.isEmpty()) {
+                //Past the retry limit the items are sent on their own, where execute retries and gives up
+                if (requestLimiter.onThrottled(RequestLimiter.Endpoint.GRAPH, throttled.retryAfter, throttledRounds++)) {
+                    nextPages.putAll(throttled.paths);
+                } else {
+                    failed.putAll(throttled.paths);
+                }
+            }
+            failed.forEach((id, path) -> followSingle(path, parser, results.get(id)));
+            pending = nextPages;
+        }
+        return results;
+    }
+
+    private <T> void sendBatch(List<Map.Entry<String, String>> chunk, GraphObjectReader.Parser<T> parser, Map<String, List<T>> results,
+                               Map<String, String> nextPages, Map<String, String> failed, Throttled throttled) {
+        JsonArray requests = new JsonArray();
+        Map<String, String> unanswered = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : chunk) {
+            JsonObject request = new JsonObject();
+            request.addProperty("id", entry.getKey());
+            request.addProperty("method", "GET");
+            request.addProperty("url", entry.getValue());
+            requests.add(request);
+            unanswered.put(entry.getKey(), entry.getValue());
+        }
+        JsonObject batch = new JsonObject();
+        batch.add("requests", requests);
+
+        List<BatchItem<T>> items = graphRestClient.post(path_Batch, batch, in -> readBatchResponse(in, parser));
+        crawlMetrics.countPage("batch");
+
+        for (BatchItem<T> item : items) {
+            String path = item.id != null ? unanswered.remove(item.id) : null;
+            if (path == null) {
+                continue;
+            }
+            if (RequestLimiter.isThrottled(item.status)) {
+                throttled.add(item.id, path, RequestLimiter.parseRetryAfter(item.retryAfter));
+                continue;
+            }
+            if (item.status < 200 || item.status >= 300 || !item.hasBody) {
+                log.info("Batch item {} failed with status {}, retrying on its own", item.id, item.status);
+                failed.put(item.id, path);
+                continue;
+            }
+            List<T> target = results.get(item.id);
+            target.addAll(item.values);
+            crawlMetrics.countObjects("directory-object", item.values.size());
+            if (item.nextLink != null) {
+                String relative = graphRestClient.toRelative(item.nextLink);
+                if (relative != null) {
+                    nextPages.put(item.id, relative);
+                } else {
+                    followSingle(item.nextLink, parser, target);
+                }
+            }
+        }
+        //Anything the service did not answer is treated as a failed item
+        failed.putAll(unanswered);
+    }
+
+    private <T> void followSingle(String pathOrUrl, GraphObjectReader.Parser<T> parser, List<T> target) {
+        String next = pathOrUrl;
+        while (next != null) {
+            log.info("nextpage: {}", next);
+            int before = target.size();
+            next = graphRestClient.getPage(next, parser, target);
+            crawlMetrics.countPage("membership");
+            crawlMetrics.countObjects("directory-object", target.size() - before);
+        }
+    }
+
+    //The body of an item can come before its id and status, so it is read into the item and sorted out afterwards
+    private static <T> List<BatchItem<T>> readBatchResponse(JsonReader in, GraphObjectReader.Parser<T> parser) throws IOException {
+        List<BatchItem<T>> items = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!"responses".equals(in.nextName()) || in.peek() != JsonToken.BEGIN_ARRAY) {
+                in.skipValue();
+                continue;
+            }
+            in.beginArray();
+            while (in.hasNext()) {
+                items.add(readBatchItem(in, parser));
+            }
+            in.endArray();
+        }
+        in.endObject();
+        return items;
+    }
+
+    private static <T> BatchItem<T> readBatchItem(JsonReader in, GraphObjectReader.Parser<T> parser) throws IOException {
+        BatchItem<T> item = new BatchItem<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("id".equals(name) && in.peek() != JsonToken.NULL) {
+                item.id = in.nextString();
+            } else if ("status".equals(name) && in.peek() == JsonToken.NUMBER) {
+                item.status = in.nextInt();
+            } else if ("headers".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                item.retryAfter = readRetryAfter(in);
+            } else if ("body".equals(name) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                item.hasBody = true;
+                item.nextLink = GraphObjectReader.readPage(in, parser, item.values);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return item;
+    }
+
+    private static String readRetryAfter(JsonReader in) throws IOException {
+        String retryAfter = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if ("retry-after".equalsIgnoreCase(in.nextName()) && (in.peek() == JsonToken.STRING || in.peek() == JsonToken.NUMBER)) {
+                retryAfter = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return retryAfter;
+    }
+
+    /**
+     * The items of one round that were throttled, with the longest Retry-After any of them asked for.
+     */
+    private static final class Throttled {
+        private final Map<String, String> paths = new LinkedHashMap<>();
+        private Duration retryAfter;
+
+        void add(String id, String path, Duration itemRetryAfter) {
+            paths.put(id, path);
+            if (itemRetryAfter != null && (retryAfter == null || itemRetryAfter.compareTo(retryAfter) > 0)) {
+                retryAfter = itemRetryAfter;
+            }
+        }
+    }
+
+    private static final class BatchItem<T> {
+        private String id;
+        private int status;
+        private String retryAfter;
+        private boolean hasBody;
+        private String nextLink;
+        private final List<T> values = new ArrayList<>();
+    }
+}
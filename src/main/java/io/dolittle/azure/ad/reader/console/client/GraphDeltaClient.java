@@ -0,0 +1,92 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks changes to users, groups and directory roles through Graph delta queries.
+ * https://docs.microsoft.com/en-us/graph/delta-query-overview
+ */
+@Component
+@Slf4j
+public class GraphDeltaClient {
+    private static final String path_UsersDelta = "/users/delta?$select=id,displayName,mail,userType";
+    private static final String path_GroupsDelta = "/groups/delta?$select=id,displayName,description,groupTypes,members";
+    private static final String path_DirectoryRolesDelta = "/directoryRoles/delta?$select=id,displayName,description,members";
+    private static final String LATEST_TOKEN = "&$deltaToken=latest";
+
+    private final GraphRestClient graphRestClient;
+
+    @Autowired
+    public GraphDeltaClient(GraphRestClient graphRestClient) {
+        this.graphRestClient = graphRestClient;
+    }
+
+    /**
+     * @return a delta link that only reports changes made from now on
+     */
+    public String getLatestUsersDeltaLink() {
+        return getDelta(path_UsersDelta + LATEST_TOKEN).getDeltaLink();
+    }
+
+    public String getLatestGroupsDeltaLink() {
+        return getDelta(path_GroupsDelta + LATEST_TOKEN).getDeltaLink();
+    }
+
+    public String getLatestDirectoryRolesDeltaLink() {
+        return getDelta(path_DirectoryRolesDelta + LATEST_TOKEN).getDeltaLink();
+    }
+
+    public DeltaResult getUsersDelta(String deltaLink) {
+        return getDelta(deltaLink);
+    }
+
+    public DeltaResult getGroupsDelta(String deltaLink) {
+        return getDelta(deltaLink);
+    }
+
+    public DeltaResult getDirectoryRolesDelta(String deltaLink) {
+        return getDelta(deltaLink);
+    }
+
+    private DeltaResult getDelta(String pathOrUrl) {
+        DeltaResult result = new DeltaResult();
+        String next = pathOrUrl;
+        while (next != null) {
+            JsonObject page = graphRestClient.get(next);
+            if (page.has("value")) {
+                page.getAsJsonArray("value").forEach(value -> result.getChanges().add(value.getAsJsonObject()));
+            }
+            next = getString(page, "@odata.nextLink");
+            if (next != null) {
+                log.info("nextpage: {}", next);
+            }
+            String deltaLink = getString(page, "@odata.deltaLink");
+            if (deltaLink != null) {
+                result.setDeltaLink(deltaLink);
+            }
+        }
+        return result;
+    }
+
+    private static String getString(JsonObject jsonObject, String property) {
+        JsonElement element = jsonObject.get(property);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    @Data
+    public static class DeltaResult {
+        private List<JsonObject> changes = new ArrayList<>();
+        private String deltaLink;
+    }
+}
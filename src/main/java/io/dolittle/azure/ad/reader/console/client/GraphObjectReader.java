@@ -0,0 +1,212 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads Graph responses straight from the stream into the reader's own models, in one pass.
+ * Only the properties the report uses are kept, everything else is skipped without being built.
+ */
+public final class GraphObjectReader {
+    private static final String USER_TYPE = GraphClient.oDataType.USER.str();
+    private static final String GROUP_TYPE = GraphClient.oDataType.GROUP.str();
+    private static final String ROLES_TYPE = GraphClient.oDataType.ROLES.str();
+
+    @FunctionalInterface
+    public interface Parser<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    private GraphObjectReader() {
+    }
+
+    /**
+     * Reads a collection page, adding every value the parser returns to target.
+     * @return the @odata.nextLink of the page, or null on the last page
+     */
+    public static <T> String readPage(JsonReader in, Parser<T> parser, List<T> target) throws IOException {
+        String nextLink = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("value".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    T value = parser.read(in);
+                    if (value != null) {
+                        target.add(value);
+                    }
+                }
+                in.endArray();
+            } else if ("@odata.nextLink".equals(name)) {
+                nextLink = nextString(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return nextLink;
+    }
+
+    public static AdUser readAdUser(JsonReader in) throws IOException {
+        Fields fields = readFields(in);
+        AdUser adUser = fields.fill(new AdUser());
+        adUser.setMail(fields.mail);
+        adUser.setUserType(fields.userType);
+        return adUser;
+    }
+
+    public static AdGroup readAdGroup(JsonReader in) throws IOException {
+        Fields fields = readFields(in);
+        AdGroup adGroup = fields.fill(new AdGroup());
+        if (fields.groupTypes != null) {
+            adGroup.setGroupTypes(fields.groupTypes);
+        }
+        return adGroup;
+    }
+
+    public static Roles readRoles(JsonReader in) throws IOException {
+        return readFields(in).fill(new Roles());
+    }
+
+    /**
+     * Reads a group member, any kind of directory object
+     */
+    public static User readMember(JsonReader in) throws IOException {
+        return readFields(in).fill(new User());
+    }
+
+    /**
+     * Reads an object a user is member of.
+     * @return a Group or Roles, or null for any other kind of directory object
+     */
+    public static BaseData readMembership(JsonReader in) throws IOException {
+        Fields fields = readFields(in);
+        if (GROUP_TYPE.equals(fields.odataType)) {
+            return fields.fill(new Group());
+        }
+        if (ROLES_TYPE.equals(fields.odataType)) {
+            return fields.fill(new Roles());
+        }
+        return null;
+    }
+
+    public static JsonObject readJsonObject(JsonReader in) throws IOException {
+        JsonElement json = JsonParser.parseReader(in);
+        return json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
+    }
+
+    private static Fields readFields(JsonReader in) throws IOException {
+        Fields fields = new Fields();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "@odata.type":
+                    fields.odataType = knownType(nextString(in));
+                    break;
+                case "id":
+                    fields.id = nextString(in);
+                    break;
+                case "displayName":
+                    fields.displayName = nextString(in);
+                    break;
+                case "description":
+                    fields.description = nextString(in);
+                    break;
+                case "mail":
+                    fields.mail = nextString(in);
+                    break;
+                case "userType":
+                    fields.userType = nextString(in);
+                    break;
+                case "groupTypes":
+                    fields.groupTypes = nextStrings(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return fields;
+    }
+
+    //Shares one string per type instead of one per object
+    private static String knownType(String type) {
+        if (USER_TYPE.equals(type)) {
+            return USER_TYPE;
+        }
+        if (GROUP_TYPE.equals(type)) {
+            return GROUP_TYPE;
+        }
+        if (ROLES_TYPE.equals(type)) {
+            return ROLES_TYPE;
+        }
+        return type;
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (in.peek() == JsonToken.BEGIN_OBJECT || in.peek() == JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return null;
+        }
+        if (in.peek() == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private static List<String> nextStrings(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            in.skipValue();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            String value = nextString(in);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        in.endArray();
+        return values;
+    }
+
+    private static final class Fields {
+        private String odataType;
+        private String id;
+        private String displayName;
+        private String description;
+        private String mail;
+        private String userType;
+        private List<String> groupTypes;
+
+        private <T extends BaseData> T fill(T baseData) {
+            baseData.setOdata_type(odataType);
+            baseData.setId(id);
+            baseData.setDisplayName(displayName);
+            baseData.setDescription(description);
+            return baseData;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import io.dolittle.azure.ad.reader.console.service.AuthenticationService;
+import io.dolittle.azure.ad.reader.console.util.RESTUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Plain JSON access to the Graph REST API for the calls the Graph SDK does not cover.
+ * The base URL is configurable so the client can be pointed at a local stand-in server.
+ */
+@Component
+@Slf4j
+public class GraphRestClient {
+    private final String baseUrl;
+    private final AuthenticationService authenticationService;
+    private final RequestLimiter requestLimiter;
+    private final RestTemplate restTemplate;
+
+    @Autowired
+    public GraphRestClient(@Value("${graph.base-url:https://graph.microsoft.com/v1.0}") String baseUrl,
+                           AuthenticationService authenticationService, RequestLimiter requestLimiter, RestTemplate restTemplate) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.authenticationService = authenticationService;
+        this.requestLimiter = requestLimiter;
+        this.restTemplate = restTemplate;
+    }
+
+    public JsonObject get(String pathOrUrl) {
+        return get(pathOrUrl, GraphObjectReader::readJsonObject);
+    }
+
+    public JsonObject post(String pathOrUrl, JsonObject body) {
+        return post(pathOrUrl, body, GraphObjectReader::readJsonObject);
+    }
+
+    /**
+     * Hands the response body to the parser as a stream, nothing is buffered or parsed in between.
+     */
+    public <T> T get(String pathOrUrl, GraphObjectReader.Parser<T> parser) {
+        return exchange(HttpMethod.GET, resolve(pathOrUrl), null, parser);
+    }
+
+    public <T> T post(String pathOrUrl, JsonObject body, GraphObjectReader.Parser<T> parser) {
+        return exchange(HttpMethod.POST, resolve(pathOrUrl), body.toString(), parser);
+    }
+
+    /**
+     * Reads one page of a collection into target.
+     * @return the @odata.nextLink of the page, or null on the last page
+     */
+    public <T> String getPage(String pathOrUrl, GraphObjectReader.Parser<T> parser, List<T> target) {
+        return get(pathOrUrl, in -> GraphObjectReader.readPage(in, parser, target));
+    }
+
+    /**
+     * Turns an absolute link returned by Graph, e.g. an @odata.nextLink, into a path relative to the base URL.
+     * Returns null when the link points somewhere else.
+     */
+    public String toRelative(String url) {
+        if (url.startsWith(baseUrl)) {
+            return url.substring(baseUrl.length());
+        }
+        return null;
+    }
+
+    private String resolve(String pathOrUrl) {
+        if (pathOrUrl.startsWith("http://") || pathOrUrl.startsWith("https://")) {
+            return pathOrUrl;
+        }
+        return baseUrl + (pathOrUrl.startsWith("/") ? pathOrUrl : "/" + pathOrUrl);
+    }
+
+    private <T> T exchange(HttpMethod method, String url, String body, GraphObjectReader.Parser<T> parser) {
+        //The token is taken on every attempt, a retry after a long backoff may need a fresh one
+        return requestLimiter.execute(RequestLimiter.Endpoint.GRAPH, () -> restTemplate.execute(url, method, request -> {
+            request.getHeaders().addAll(RESTUtil.getHeaderWithBearerToken(authenticationService.authenticate(AuthenticationService.TokenSource.GRAPH)));
+            if (body != null) {
+                request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                request.getBody().write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }, response -> {
+            try (JsonReader reader = new JsonReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                return parser.read(reader);
+            }
+        }));
+    }
+}
@@ -0,0 +1,266 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import com.microsoft.graph.http.GraphServiceException;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Governs the HTTP requests sent to each endpoint.
+ * The number of requests in flight grows by one per round trip while calls are fast and is halved when the endpoint
+ * throttles, bounded by crawl.max-in-flight. Throttled calls (429, 503, 504) are retried after Retry-After, or after a
+ * jittered exponential backoff when the response has none, and the whole endpoint holds off for that time.
+ */
+@Component
+@Slf4j
+public class RequestLimiter {
+    public enum Endpoint { GRAPH, ARM }
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    private final Map<Endpoint, EndpointLimit> limits = new EnumMap<>(Endpoint.class);
+    private final int maxRetries;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final CrawlMetrics crawlMetrics;
+
+    @Autowired
+    public RequestLimiter(CrawlMetrics crawlMetrics,
+                          @Value("${crawl.max-in-flight:16}") int maxInFlight,
+                          @Value("${throttle.initial-in-flight:4}") int initialInFlight,
+                          @Value("${throttle.latency-tolerance:3.0}") double latencyTolerance,
+                          @Value("${throttle.max-retries:6}") int maxRetries,
+                          @Value("${throttle.base-backoff:PT1S}") Duration baseBackoff,
+                          @Value("${throttle.max-backoff:PT60S}") Duration maxBackoff) {
+        int max = Math.max(1, maxInFlight);
+        int initial = Math.max(1, Math.min(initialInFlight, max));
+        for (Endpoint endpoint : Endpoint.values()) {
+            limits.put(endpoint, new EndpointLimit(endpoint, initial, max, latencyTolerance));
+        }
+        this.maxRetries = maxRetries;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        this.crawlMetrics = crawlMetrics;
+        log.info("Requests in flight per endpoint: {} at start, at most {}", initial, max);
+    }
+
+    public <T> T execute(Endpoint endpoint, Supplier<T> request) {
+        EndpointLimit limit = limits.get(endpoint);
+        for (int attempt = 0; ; attempt++) {
+            limit.acquire();
+            long start = System.nanoTime();
+            Duration retryAfter;
+            try {
+                T result = request.get();
+                long latency = System.nanoTime() - start;
+                limit.onSuccess(latency);
+                crawlMetrics.recordRequest(endpoint.name(), "success", latency);
+                return result;
+            } catch (RuntimeException e) {
+                boolean throttled = isThrottled(e);
+                crawlMetrics.recordRequest(endpoint.name(), throttled ? "throttled" : "error", System.nanoTime() - start);
+                if (!throttled || attempt >= maxRetries) {
+                    throw e;
+                }
+                retryAfter = getRetryAfter(e);
+            } finally {
+                limit.release();
+            }
+
+            Duration delay = retryAfter != null ? retryAfter : backoff(attempt);
+            limit.onThrottled(delay);
+            log.warn("{} throttled, retry {} of {} in {} ms", endpoint, attempt + 1, maxRetries, delay.toMillis());
+            sleep(withJitter(delay));
+        }
+    }
+
+    /**
+     * Holds the endpoint off after a throttled answer that did not come through execute, like one item of a batch.
+     * The next requests to the endpoint wait for Retry-After, or for the backoff of the attempt when there is none.
+     * @return false when the attempt is past throttle.max-retries and the request should not be retried
+     */
+    public boolean onThrottled(Endpoint endpoint, Duration retryAfter, int attempt) {
+        if (attempt >= maxRetries) {
+            return false;
+        }
+        Duration delay = retryAfter != null ? retryAfter : backoff(attempt);
+        limits.get(endpoint).onThrottled(withJitter(delay));
+        log.warn("{} throttled, retry {} of {} in {} ms", endpoint, attempt + 1, maxRetries, delay.toMillis());
+        return true;
+    }
+
+    public int getLimit(Endpoint endpoint) {
+        return limits.get(endpoint).getLimit();
+    }
+
+    private Duration backoff(int attempt) {
+        long millis = baseBackoff.toMillis() << Math.min(attempt, 20);
+        return Duration.ofMillis(Math.min(millis, maxBackoff.toMillis()));
+    }
+
+    //Spreads the retries of the waiting workers so they do not hit the endpoint at the same instant
+    private static Duration withJitter(Duration delay) {
+        long millis = delay.toMillis();
+        return Duration.ofMillis(millis + ThreadLocalRandom.current().nextLong(millis / 4 + 1));
+    }
+
+    private static boolean isThrottled(RuntimeException e) {
+        return isThrottled(getStatus(e));
+    }
+
+    static boolean isThrottled(int status) {
+        return status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE || status == GATEWAY_TIMEOUT;
+    }
+
+    private static int getStatus(RuntimeException e) {
+        if (e instanceof HttpStatusCodeException) {
+            return ((HttpStatusCodeException) e).getRawStatusCode();
+        }
+        if (e instanceof GraphServiceException) {
+            return ((GraphServiceException) e).getResponseCode();
+        }
+        return -1;
+    }
+
+    //The Graph SDK does not expose response headers, so its exceptions fall back to the backoff
+    private static Duration getRetryAfter(RuntimeException e) {
+        if (!(e instanceof HttpStatusCodeException)) {
+            return null;
+        }
+        HttpHeaders headers = ((HttpStatusCodeException) e).getResponseHeaders();
+        return parseRetryAfter(headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null);
+    }
+
+    /**
+     * @param retryAfter a Retry-After value, seconds or an HTTP date
+     * @return the time to wait, or null when there is no usable value
+     */
+    static Duration parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException notSeconds) {
+            try {
+                ZonedDateTime until = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration delay = Duration.between(ZonedDateTime.now(until.getZone()), until);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException notDate) {
+                return null;
+            }
+        }
+    }
+
+    private static void sleep(Duration delay) {
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry a request", e);
+        }
+    }
+
+    /**
+     * Additive increase, multiplicative decrease of the requests in flight for one endpoint.
+     * A call slower than latencyTolerance times the moving average latency counts as congestion and shrinks the limit a little.
+     */
+    private static class EndpointLimit {
+        private static final double THROTTLE_DECREASE = 0.5;
+        private static final double LATENCY_DECREASE = 0.9;
+        private static final double LATENCY_SMOOTHING = 0.1;
+
+        private final Endpoint endpoint;
+        private final int max;
+        private final double latencyTolerance;
+        private double limit;
+        private int inFlight;
+        private double averageLatency = -1;
+        private boolean decreased;
+        private long lastDecrease;
+        private long pausedUntil;
+
+        EndpointLimit(Endpoint endpoint, int initial, int max, double latencyTolerance) {
+            this.endpoint = endpoint;
+            this.limit = initial;
+            this.max = max;
+            this.latencyTolerance = latencyTolerance;
+        }
+
+        synchronized void acquire() {
+            try {
+                while (true) {
+                    long pause = pausedUntil - System.currentTimeMillis();
+                    if (pause > 0) {
+                        wait(pause);
+                    } else if (inFlight < (int) limit) {
+                        inFlight++;
+                        return;
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a request slot", e);
+            }
+        }
+
+        synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized void onSuccess(long latency) {
+            if (averageLatency >= 0 && latency > averageLatency * latencyTolerance) {
+                decrease(LATENCY_DECREASE, latency);
+            } else if (limit < max) {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+            averageLatency = averageLatency < 0 ? latency : averageLatency + LATENCY_SMOOTHING * (latency - averageLatency);
+        }
+
+        synchronized void onThrottled(Duration retryAfter) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfter.toMillis());
+            decrease(THROTTLE_DECREASE, retryAfter.toNanos());
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        //At most one decrease per round trip, the calls that were already in flight report the same congestion
+        private void decrease(double factor, long window) {
+            long now = System.nanoTime();
+            long roundTrip = Math.max(window, (long) averageLatency);
+            if (decreased && now - lastDecrease < roundTrip) {
+                return;
+            }
+            decreased = true;
+            lastDecrease = now;
+            int before = (int) limit;
+            limit = Math.max(1, limit * factor);
+            if ((int) limit != before) {
+                log.info("{} requests in flight lowered to {}", endpoint, (int) limit);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Role definitions keyed by their GUID, so an id given at subscription scope and one given at tenant scope hit the same entry.
+ * The definitions are stored on disk and reused by later runs until the TTL has passed.
+ */
+@Component
+@Slf4j
+public class RoleDefinitionCache {
+    private final Map<String, RoleDefinition> roleDefinitions = new ConcurrentHashMap<>();
+    private final File cacheFile;
+    private final Duration ttl;
+    private final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final CrawlMetrics crawlMetrics;
+    private volatile boolean loaded = false;
+
+    @Autowired
+    public RoleDefinitionCache(CrawlMetrics crawlMetrics,
+                               @Value("${azure.role-definition.cache-file:${file.output.path}role-definitions.json}") String cacheFile,
+                               @Value("${azure.role-definition.cache-ttl:PT24H}") Duration ttl) {
+        this.cacheFile = new File(cacheFile);
+        this.ttl = ttl;
+        this.crawlMetrics = crawlMetrics;
+    }
+
+    public RoleDefinition get(String roleDefinitionId) {
+        String key = key(roleDefinitionId);
+        return key == null ? null : roleDefinitions.get(key);
+    }
+
+    public RoleDefinition put(String roleDefinitionId, RoleDefinition roleDefinition) {
+        RoleDefinition cached = roleDefinitions.putIfAbsent(key(roleDefinitionId), roleDefinition);
+        return cached != null ? cached : roleDefinition;
+    }
+
+    /**
+     * Fills the cache once per run, from disk when the stored definitions are younger than the TTL and otherwise from fetchAll.
+     */
+    public void load(Supplier<List<RoleDefinition>> fetchAll) {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            boolean stored = readFromDisk();
+            crawlMetrics.countCacheLookup("role-definitions-file", stored);
+            if (!stored) {
+                List<RoleDefinition> definitions = fetchAll.get();
+                definitions.forEach(roleDefinition -> put(roleDefinition.getId(), roleDefinition));
+                log.info("Loaded {} role definitions", definitions.size());
+                writeToDisk(definitions);
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * @return the lower case GUID at the end of a role definition id
+     */
+    public static String key(String roleDefinitionId) {
+        if (roleDefinitionId == null) {
+            return null;
+        }
+        String trimmed = roleDefinitionId.endsWith("/") ? roleDefinitionId.substring(0, roleDefinitionId.length() - 1) : roleDefinitionId;
+        return trimmed.substring(trimmed.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private boolean readFromDisk() {
+        if (!cacheFile.isFile()) {
+            return false;
+        }
+        try {
+            StoredRoleDefinitions stored = objectMapper.readValue(cacheFile, StoredRoleDefinitions.class);
+            if (System.currentTimeMillis() - stored.getFetchedAt() > ttl.toMillis()) {
+                log.info("Stored role definitions have expired");
+                return false;
+            }
+            stored.getValue().forEach(roleDefinition -> put(roleDefinition.getId(), roleDefinition));
+            log.info("Loaded {} role definitions from {}", stored.getValue().size(), cacheFile);
+            return true;
+        } catch (IOException e) {
+            log.error("Unable to read stored role definitions", e);
+            return false;
+        }
+    }
+
+    private void writeToDisk(List<RoleDefinition> definitions) {
+        StoredRoleDefinitions stored = new StoredRoleDefinitions();
+        stored.setValue(definitions);
+        stored.setFetchedAt(System.currentTimeMillis());
+        try {
+            objectMapper.writeValue(cacheFile, stored);
+        } catch (IOException e) {
+            log.error("Unable to store role definitions", e);
+        }
+    }
+
+    /**
+     * Layout of the cache file, the definitions together with the time they were fetched.
+     */
+    @Data
+    private static class StoredRoleDefinitions {
+        private long fetchedAt;
+        private List<RoleDefinition> value = new ArrayList<>();
+    }
+}
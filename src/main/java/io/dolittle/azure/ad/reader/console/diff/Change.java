@@ -0,0 +1,20 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+import lombok.Data;
+
+/**
+ * One line of the change report. The previous label is only set for changed records, privileged only for role
+ * assignments of a privileged role.
+ */
+@Data
+public class Change {
+    private String change;
+    private String kind;
+    private String id;
+    private String label;
+    private String previousLabel;
+    private Boolean privileged;
+}
@@ -0,0 +1,248 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex.normalizeId;
+import static io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex.normalizeScope;
+
+/**
+ * Compares the directory of this run with the fingerprints stored by the previous one.
+ * <p>
+ * The directory is read once, every record is written to the new fingerprint file and its key and value are kept in
+ * a {@link FingerprintTable}. The previous file is then streamed against the table, reporting what was removed and
+ * marking what changed, and the new file is streamed once more to report what was added and changed with its current
+ * label. Only the two hashes per record stay in memory, the labels are read back from disk. One instance per run.
+ */
+public class DirectoryDiff {
+    public static final String ADDED = "added";
+    public static final String REMOVED = "removed";
+    public static final String CHANGED = "changed";
+    private static final int EDGES_PER_USER = 8;
+
+    private final Set<String> privilegedRoles = new HashSet<>();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final Summary summary = new Summary();
+    private FingerprintTable table;
+
+    /**
+     * @param privilegedRoles Azure and directory role names flagged as privileged in the report, compared ignoring case
+     */
+    public DirectoryDiff(Collection<String> privilegedRoles) {
+        for (String role : privilegedRoles) {
+            if (!role.trim().isEmpty()) {
+                this.privilegedRoles.add(role.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * Writes a fingerprint of every user, group, group member, directory role member and role assignment.
+     */
+    public void fingerprint(Iterable<AdUser> adUsers, Iterable<AdGroup> adGroups, RoleAssignmentIndex roleAssignmentIndex,
+                            Path fingerprintFile) throws IOException {
+        table = new FingerprintTable(size(adUsers) * EDGES_PER_USER + size(adGroups) + roleAssignmentIndex.size());
+        try (FingerprintWriter writer = new FingerprintWriter(fingerprintFile)) {
+            for (AdUser adUser : adUsers) {
+                String userId = normalizeId(adUser.getId());
+                add(writer, Fingerprint.of(Fingerprint.Kind.USER, userId,
+                        Fingerprint.hash(adUser.getDisplayName(), adUser.getMail(), adUser.getUserType()), false, userLabel(adUser)));
+                for (Roles roles : adUser.getRoles()) {
+                    add(writer, Fingerprint.of(Fingerprint.Kind.DIRECTORY_ROLE_MEMBER, normalizeId(roles.getId()) + "/" + userId,
+                            0, isPrivileged(roles.getDisplayName()), adUser.getDisplayName() + " in " + roles.getDisplayName()));
+                }
+                for (RoleAssignment roleAssignment : roleAssignmentIndex.getByPrincipalId(userId)) {
+                    add(writer, roleAssignment(roleAssignment, adUser.getDisplayName()));
+                }
+            }
+            for (AdGroup adGroup : adGroups) {
+                String groupId = normalizeId(adGroup.getId());
+                add(writer, Fingerprint.of(Fingerprint.Kind.GROUP, groupId,
+                        Fingerprint.hash(adGroup.getDisplayName(), adGroup.getDescription(), String.join(",", adGroup.getGroupTypes())),
+                        false, adGroup.getDisplayName()));
+                for (User member : adGroup.getUsers()) {
+                    add(writer, Fingerprint.of(Fingerprint.Kind.GROUP_MEMBER, groupId + "/" + normalizeId(member.getId()),
+                            0, false, member.getDisplayName() + " in " + adGroup.getDisplayName()));
+                }
+                for (RoleAssignment roleAssignment : roleAssignmentIndex.getByPrincipalId(groupId)) {
+                    add(writer, roleAssignment(roleAssignment, adGroup.getDisplayName()));
+                }
+            }
+            //Service principals and deleted principals are not crawled, they are named by their id
+            for (RoleAssignment roleAssignment : roleAssignmentIndex.getAll()) {
+                if (table.find(Fingerprint.key(Fingerprint.Kind.ROLE_ASSIGNMENT, normalizeId(roleAssignment.getId()))) == FingerprintTable.NOT_FOUND) {
+                    RoleAssignmentProperty properties = roleAssignment.getProperties();
+                    add(writer, roleAssignment(roleAssignment, properties == null ? null : properties.getPrincipalId()));
+                }
+            }
+            summary.recordCount = writer.getCount();
+        }
+    }
+
+    /**
+     * Streams the previous fingerprints against those of this run and writes every difference to the report,
+     * one JSON object per line: removed records first, then added and changed ones.
+     */
+    public Summary compare(Path previousFile, Path fingerprintFile, Path reportFile) throws IOException {
+        if (table == null) {
+            throw new IllegalStateException("Nothing fingerprinted to compare");
+        }
+        Map<Long, String> previousLabels = new HashMap<>();
+        try (Writer report = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            try (FingerprintReader reader = new FingerprintReader(previousFile)) {
+                for (Fingerprint previous = reader.next(); previous != null; previous = reader.next()) {
+                    int slot = table.find(previous.getKey());
+                    if (slot == FingerprintTable.NOT_FOUND) {
+                        write(report, REMOVED, previous, null);
+                    } else if (table.valueAt(slot) != previous.getValue()) {
+                        table.setState(slot, FingerprintTable.CHANGED);
+                        previousLabels.put(previous.getKey(), previous.getLabel());
+                    } else {
+                        table.setState(slot, FingerprintTable.UNCHANGED);
+                    }
+                }
+            }
+            try (FingerprintReader reader = new FingerprintReader(fingerprintFile)) {
+                for (Fingerprint current = reader.next(); current != null; current = reader.next()) {
+                    byte state = table.stateAt(table.find(current.getKey()));
+                    if (state == FingerprintTable.UNMATCHED) {
+                        write(report, ADDED, current, null);
+                    } else if (state == FingerprintTable.CHANGED) {
+                        write(report, CHANGED, current, previousLabels.get(current.getKey()));
+                    }
+                }
+            }
+        }
+        return summary;
+    }
+
+    public Summary getSummary() {
+        return summary;
+    }
+
+    private void add(FingerprintWriter writer, Fingerprint fingerprint) throws IOException {
+        if (table.add(fingerprint.getKey(), fingerprint.getValue())) {
+            writer.write(fingerprint);
+        }
+    }
+
+    private Fingerprint roleAssignment(RoleAssignment roleAssignment, String principal) {
+        RoleAssignmentProperty properties = roleAssignment.getProperties();
+        String roleDefinitionId = properties == null ? null : properties.getRoleDefinitionId();
+        String scope = properties == null ? null : properties.getScope();
+        String roleName = roleName(roleAssignment, roleDefinitionId);
+        long value = Fingerprint.hash(properties == null ? null : normalizeId(properties.getPrincipalId()),
+                normalizeId(roleDefinitionId), normalizeScope(scope));
+        return Fingerprint.of(Fingerprint.Kind.ROLE_ASSIGNMENT, normalizeId(roleAssignment.getId()), value, isPrivileged(roleName),
+                roleName + " for " + principal + " at " + scope);
+    }
+
+    //Azure role names and directory role names share the one list
+    private boolean isPrivileged(String roleName) {
+        return roleName != null && privilegedRoles.contains(roleName.toLowerCase(Locale.ROOT));
+    }
+
+    private void write(Writer report, String change, Fingerprint fingerprint, String previousLabel) throws IOException {
+        Change line = new Change();
+        line.setChange(change);
+        line.setKind(fingerprint.getKind().str());
+        line.setId(fingerprint.getId());
+        line.setLabel(fingerprint.getLabel());
+        line.setPreviousLabel(previousLabel);
+        line.setPrivileged(fingerprint.isPrivileged() ? Boolean.TRUE : null);
+        gson.toJson(line, report);
+        report.write('\n');
+        summary.count(fingerprint, change);
+    }
+
+    //The table grows as needed, a size known up front only saves the rehashing
+    private static int size(Iterable<?> records) {
+        return records instanceof Collection ? ((Collection<?>) records).size() : 0;
+    }
+
+    private static String userLabel(AdUser adUser) {
+        return adUser.getMail() == null ? adUser.getDisplayName() : adUser.getDisplayName() + " <" + adUser.getMail() + ">";
+    }
+
+    private static String roleName(RoleAssignment roleAssignment, String roleDefinitionId) {
+        RoleDefinition roleDefinition = roleAssignment.getRoleDefinition();
+        if (roleDefinition != null && roleDefinition.getProperties() != null && roleDefinition.getProperties().getRoleName() != null) {
+            return roleDefinition.getProperties().getRoleName();
+        }
+        return roleDefinitionId == null ? null : roleDefinitionId.substring(roleDefinitionId.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Number of records fingerprinted and of changes reported per kind.
+     */
+    public static class Summary {
+        private static final String[] CHANGES = {ADDED, REMOVED, CHANGED};
+        private final int[][] counts = new int[Fingerprint.Kind.values().length][CHANGES.length];
+        private long recordCount;
+        private int privilegedAdded;
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public int getCount(Fingerprint.Kind kind, String change) {
+            for (int i = 0; i < CHANGES.length; i++) {
+                if (CHANGES[i].equals(change)) {
+                    return counts[kind.ordinal()][i];
+                }
+            }
+            return 0;
+        }
+
+        public int getTotal() {
+            int total = 0;
+            for (int[] kind : counts) {
+                for (int count : kind) {
+                    total += count;
+                }
+            }
+            return total;
+        }
+
+        /**
+         * @return the added or changed role assignments and directory role memberships of a privileged role
+         */
+        public int getPrivilegedAdded() {
+            return privilegedAdded;
+        }
+
+        private void count(Fingerprint fingerprint, String change) {
+            for (int i = 0; i < CHANGES.length; i++) {
+                if (CHANGES[i].equals(change)) {
+                    counts[fingerprint.getKind().ordinal()][i]++;
+                }
+            }
+            if (fingerprint.isPrivileged() && !REMOVED.equals(change)) {
+                privilegedAdded++;
+            }
+        }
+    }
+}
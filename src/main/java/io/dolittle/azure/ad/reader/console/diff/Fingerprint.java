@@ -0,0 +1,105 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+/**
+ * One user, group, membership edge or role assignment reduced to two 64 bit hashes: the key says what the record is,
+ * the value what it holds. Two runs hold the same record when the keys match, and it changed when the values differ.
+ * The id and label are only kept to describe the record in the change report.
+ */
+public final class Fingerprint {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char SEPARATOR = '\u0000';
+    private static final char NULL = '\u0001';
+
+    public enum Kind {
+        USER("user"),
+        GROUP("group"),
+        GROUP_MEMBER("group-member"),
+        DIRECTORY_ROLE_MEMBER("directory-role-member"),
+        ROLE_ASSIGNMENT("role-assignment");
+
+        private final String name;
+
+        Kind(String name) {
+            this.name = name;
+        }
+
+        public String str() {
+            return name;
+        }
+    }
+
+    private final Kind kind;
+    private final long key;
+    private final long value;
+    private final boolean privileged;
+    private final String id;
+    private final String label;
+
+    Fingerprint(Kind kind, long key, long value, boolean privileged, String id, String label) {
+        this.kind = kind;
+        this.key = key;
+        this.value = value;
+        this.privileged = privileged;
+        this.id = id;
+        this.label = label;
+    }
+
+    public static Fingerprint of(Kind kind, String id, long value, boolean privileged, String label) {
+        return new Fingerprint(kind, key(kind, id), value, privileged, id, label);
+    }
+
+    public static long key(Kind kind, String id) {
+        return hash(kind.str(), id);
+    }
+
+    /**
+     * 64 bit FNV-1a over the parts, separated so ("ab", "c") and ("a", "bc") differ, with a final avalanche step.
+     */
+    public static long hash(String... parts) {
+        long hash = FNV_OFFSET;
+        for (String part : parts) {
+            if (part == null) {
+                hash = (hash ^ NULL) * FNV_PRIME;
+            } else {
+                for (int i = 0; i < part.length(); i++) {
+                    hash = (hash ^ part.charAt(i)) * FNV_PRIME;
+                }
+            }
+            hash = (hash ^ SEPARATOR) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public boolean isPrivileged() {
+        return privileged;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,25 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+/**
+ * Layout of the gzipped fingerprint file.
+ * <pre>
+ * header:  magic int, version int
+ * records: RECORD byte, kind byte, key long, value long, privileged boolean, id UTF, label UTF
+ * end:     END byte
+ * </pre>
+ * Records are in the order the directory was read, the file is only ever read from start to end.
+ */
+final class FingerprintFormat {
+    static final int MAGIC = 0x41444650; //ADFP
+    static final int VERSION = 1;
+    static final int RECORD = 1;
+    static final int END = 0;
+    //writeUTF takes at most 65535 bytes, labels are cut well below that
+    static final int MAX_TEXT_LENGTH = 4096;
+
+    private FingerprintFormat() {
+    }
+}
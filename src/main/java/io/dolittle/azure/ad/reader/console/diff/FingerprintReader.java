@@ -0,0 +1,64 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the fingerprints of a file written by {@link FingerprintWriter} in the order they were written.
+ */
+public class FingerprintReader implements AutoCloseable {
+    private static final Fingerprint.Kind[] KINDS = Fingerprint.Kind.values();
+    private final DataInputStream in;
+    private boolean ended;
+
+    public FingerprintReader(Path path) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 64 * 1024), 64 * 1024));
+        try {
+            if (in.readInt() != FingerprintFormat.MAGIC) {
+                throw new IOException(path + " is not a fingerprint file");
+            }
+            int version = in.readInt();
+            if (version != FingerprintFormat.VERSION) {
+                throw new IOException("Unsupported fingerprint file version " + version);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next fingerprint, or null at the end of the file
+     */
+    public Fingerprint next() throws IOException {
+        if (ended) {
+            return null;
+        }
+        if (in.readByte() == FingerprintFormat.END) {
+            ended = true;
+            return null;
+        }
+        int kind = in.readByte();
+        if (kind < 0 || kind >= KINDS.length) {
+            throw new IOException("Unknown fingerprint kind " + kind);
+        }
+        long key = in.readLong();
+        long value = in.readLong();
+        boolean privileged = in.readBoolean();
+        String id = in.readUTF();
+        String label = in.readUTF();
+        return new Fingerprint(KINDS[kind], key, value, privileged, id, label);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,109 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+/**
+ * Open addressing hash table from fingerprint key to value, with a match state per entry, in three primitive arrays.
+ * Key 0 marks a free slot, a record hashing to 0 is stored as 1. Not thread safe.
+ */
+final class FingerprintTable {
+    static final byte UNMATCHED = 0;
+    static final byte UNCHANGED = 1;
+    static final byte CHANGED = 2;
+    static final int NOT_FOUND = -1;
+
+    private long[] keys;
+    private long[] values;
+    private byte[] states;
+    private int mask;
+    private int size;
+
+    FingerprintTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @return false when the key is already in the table, the value is then left as it was
+     */
+    boolean add(long key, long value) {
+        if ((size + 1) * 4L > keys.length * 3L) {
+            grow();
+        }
+        key = slotKey(key);
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return true;
+    }
+
+    int find(long key) {
+        key = slotKey(key);
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    long valueAt(int slot) {
+        return values[slot];
+    }
+
+    byte stateAt(int slot) {
+        return states[slot];
+    }
+
+    void setState(int slot, byte state) {
+        states[slot] = state;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                states[slot] = oldStates[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    //The keys are already mixed, the low bits are as good as any
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private static long slotKey(long key) {
+        return key == 0 ? 1 : key;
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.diff;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes fingerprints to a file one record at a time. Not thread safe.
+ */
+public class FingerprintWriter implements AutoCloseable {
+    private final DataOutputStream out;
+    private long count;
+
+    public FingerprintWriter(Path path) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(Files.newOutputStream(path), 64 * 1024) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        this.out = new DataOutputStream(new BufferedOutputStream(gzip, 64 * 1024));
+        out.writeInt(FingerprintFormat.MAGIC);
+        out.writeInt(FingerprintFormat.VERSION);
+    }
+
+    public void write(Fingerprint fingerprint) throws IOException {
+        out.writeByte(FingerprintFormat.RECORD);
+        out.writeByte(fingerprint.getKind().ordinal());
+        out.writeLong(fingerprint.getKey());
+        out.writeLong(fingerprint.getValue());
+        out.writeBoolean(fingerprint.isPrivileged());
+        out.writeUTF(cut(fingerprint.getId()));
+        out.writeUTF(cut(fingerprint.getLabel()));
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeByte(FingerprintFormat.END);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String cut(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.length() > FingerprintFormat.MAX_TEXT_LENGTH ? text.substring(0, FingerprintFormat.MAX_TEXT_LENGTH) : text;
+    }
+}
@@ -13,7 +13,6 @@ public class RoleAssignment {
     private String name;
     private RoleAssignmentProperty properties;
     private RoleDefinition roleDefinition;
-    private String principalType;
 
 
 }
@@ -0,0 +1,123 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.model.roleassignment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only lookup structure over a set of role assignments.
+ * Built once after the assignments are fetched, the lookups return shared unmodifiable lists
+ * so the same {@link RoleAssignment} instances are handed out without copying.
+ */
+public class RoleAssignmentIndex {
+    private final List<RoleAssignment> all;
+    private final Map<String, List<RoleAssignment>> byPrincipalId = new HashMap<>();
+    private final Map<String, List<RoleAssignment>> byRoleDefinitionId = new HashMap<>();
+    private final Map<String, List<RoleAssignment>> byScope = new HashMap<>();
+    private final Map<String, Set<String>> inheritedScopes = new HashMap<>();
+
+    public RoleAssignmentIndex(Collection<RoleAssignment> roleAssignments) {
+        this(roleAssignments, Collections.emptyMap());
+    }
+
+    /**
+     * @param inheritedScopes for a scope, like a subscription, the scopes outside its path it inherits assignments
+     *                        from, like the management groups above it
+     */
+    public RoleAssignmentIndex(Collection<RoleAssignment> roleAssignments, Map<String, Set<String>> inheritedScopes) {
+        this.all = Collections.unmodifiableList(new ArrayList<>(roleAssignments));
+        inheritedScopes.forEach((scope, ancestors) -> {
+            Set<String> normalized = new HashSet<>();
+            ancestors.forEach(ancestor -> normalized.add(normalizeScope(ancestor)));
+            this.inheritedScopes.put(normalizeScope(scope), Collections.unmodifiableSet(normalized));
+        });
+        for (RoleAssignment roleAssignment : all) {
+            RoleAssignmentProperty properties = roleAssignment.getProperties();
+            if (properties == null) {
+                continue;
+            }
+            add(byPrincipalId, normalizeId(properties.getPrincipalId()), roleAssignment);
+            add(byRoleDefinitionId, normalizeId(properties.getRoleDefinitionId()), roleAssignment);
+            add(byScope, normalizeScope(properties.getScope()), roleAssignment);
+        }
+        freeze(byPrincipalId);
+        freeze(byRoleDefinitionId);
+        freeze(byScope);
+    }
+
+    public List<RoleAssignment> getAll() {
+        return all;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    /**
+     * @return the normalized ids of all principals holding at least one assignment
+     */
+    public Set<String> getPrincipalIds() {
+        return Collections.unmodifiableSet(byPrincipalId.keySet());
+    }
+
+    /**
+     * @return normalized scopes mapped to the normalized scopes they inherit assignments from
+     */
+    public Map<String, Set<String>> getInheritedScopes() {
+        return Collections.unmodifiableMap(inheritedScopes);
+    }
+
+    public List<RoleAssignment> getByPrincipalId(String principalId) {
+        return lookup(byPrincipalId, normalizeId(principalId));
+    }
+
+    public List<RoleAssignment> getByRoleDefinitionId(String roleDefinitionId) {
+        return lookup(byRoleDefinitionId, normalizeId(roleDefinitionId));
+    }
+
+    public List<RoleAssignment> getByScope(String scope) {
+        return lookup(byScope, normalizeScope(scope));
+    }
+
+    public static String normalizeId(String id) {
+        return id == null ? null : id.toLowerCase(Locale.ROOT);
+    }
+
+    public static String normalizeScope(String scope) {
+        if (scope == null) {
+            return null;
+        }
+        String normalized = scope.toLowerCase(Locale.ROOT);
+        while (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private static void add(Map<String, List<RoleAssignment>> map, String key, RoleAssignment roleAssignment) {
+        if (key == null) {
+            return;
+        }
+        map.computeIfAbsent(key, k -> new ArrayList<>()).add(roleAssignment);
+    }
+
+    private static void freeze(Map<String, List<RoleAssignment>> map) {
+        map.replaceAll((key, list) -> Collections.unmodifiableList(list));
+    }
+
+    private static List<RoleAssignment> lookup(Map<String, List<RoleAssignment>> map, String key) {
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        return map.getOrDefault(key, Collections.emptyList());
+    }
+}
@@ -12,6 +12,7 @@ import java.util.stream.Collectors;
 @Data
 public class RoleAssignmentList {
     private List<RoleAssignment> value = new ArrayList<>();
+    private String nextLink;
 
     public List<RoleAssignment> getAllRoleAssignments() {
         return this.value;
@@ -0,0 +1,156 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.model.roleassignment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prefix trie over ARM scope paths, one node per path segment, holding the role assignments made at each scope.
+ * An assignment applies at its own scope and at every scope below it, so the assignments in effect at a scope are
+ * those met on the way down from the root. A subscription also inherits the assignments of the management groups
+ * above it, as recorded in {@link RoleAssignmentIndex#getInheritedScopes()}.
+ * <p>
+ * Every node keeps the ids of the principals assigned at it or anywhere below it, so both lookups only walk the
+ * path of the requested scope. Read-only once built.
+ */
+public class ScopeTrie {
+    private final Node root = new Node();
+
+    public ScopeTrie(RoleAssignmentIndex roleAssignmentIndex) {
+        for (RoleAssignment roleAssignment : roleAssignmentIndex.getAll()) {
+            RoleAssignmentProperty properties = roleAssignment.getProperties();
+            if (properties != null && properties.getScope() != null) {
+                add(properties.getScope()).assignments.add(roleAssignment);
+            }
+        }
+        roleAssignmentIndex.getInheritedScopes().forEach((scope, ancestors) -> {
+            Node node = add(scope);
+            for (String ancestor : ancestors) {
+                Node ancestorNode = find(ancestor);
+                if (ancestorNode != null && ancestorNode != root) {
+                    node.inherited.add(ancestorNode);
+                }
+            }
+        });
+        root.seal();
+    }
+
+    /**
+     * @return the assignments in effect at the scope: those made at it, at the scopes above it and at the
+     * management groups it inherits from, outermost first
+     */
+    public List<RoleAssignment> getEffective(String scope) {
+        List<RoleAssignment> effective = new ArrayList<>();
+        Node node = root;
+        node.collect(effective);
+        for (String segment : segments(scope)) {
+            node = node.child(segment);
+            if (node == null) {
+                break;
+            }
+            node.collect(effective);
+        }
+        return effective;
+    }
+
+    /**
+     * @return the normalized ids of every principal with access at the scope or anywhere below it, through an
+     * assignment at, above or below the scope
+     */
+    public Set<String> getPrincipalIdsUnder(String scope) {
+        Set<String> principalIds = new LinkedHashSet<>();
+        Node node = root;
+        for (String segment : segments(scope)) {
+            List<RoleAssignment> above = new ArrayList<>();
+            node.collect(above);
+            above.forEach(roleAssignment -> principalIds.add(principalId(roleAssignment)));
+            node = node.child(segment);
+            if (node == null) {
+                principalIds.remove(null);
+                return principalIds;
+            }
+        }
+        principalIds.addAll(node.principalIdsBelow);
+        principalIds.remove(null);
+        return principalIds;
+    }
+
+    private Node add(String scope) {
+        Node node = root;
+        for (String segment : segments(scope)) {
+            if (node.children == null) {
+                node.children = new HashMap<>();
+            }
+            node = node.children.computeIfAbsent(segment, key -> new Node());
+        }
+        return node;
+    }
+
+    private Node find(String scope) {
+        Node node = root;
+        for (String segment : segments(scope)) {
+            node = node.child(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static String[] segments(String scope) {
+        String normalized = RoleAssignmentIndex.normalizeScope(scope);
+        if (normalized == null) {
+            return new String[0];
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : normalized.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static String principalId(RoleAssignment roleAssignment) {
+        return RoleAssignmentIndex.normalizeId(roleAssignment.getProperties().getPrincipalId());
+    }
+
+    private static class Node {
+        private Map<String, Node> children;
+        private List<RoleAssignment> assignments = new ArrayList<>();
+        private final List<Node> inherited = new ArrayList<>();
+        private Set<String> principalIdsBelow;
+
+        Node child(String segment) {
+            return children == null ? null : children.get(segment);
+        }
+
+        void collect(List<RoleAssignment> target) {
+            inherited.forEach(node -> target.addAll(node.assignments));
+            target.addAll(assignments);
+        }
+
+        //Children first, so each node can take the principals of the nodes below it
+        Set<String> seal() {
+            Set<String> principalIds = new HashSet<>();
+            if (children != null) {
+                children.values().forEach(child -> principalIds.addAll(child.seal()));
+            }
+            List<RoleAssignment> own = new ArrayList<>();
+            collect(own);
+            own.forEach(roleAssignment -> principalIds.add(principalId(roleAssignment)));
+            principalIds.remove(null);
+            assignments = assignments.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(assignments);
+            principalIdsBelow = Collections.unmodifiableSet(principalIds);
+            return principalIdsBelow;
+        }
+    }
+}
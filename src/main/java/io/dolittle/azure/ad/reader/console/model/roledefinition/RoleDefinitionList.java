@@ -0,0 +1,15 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.model.roledefinition;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class RoleDefinitionList {
+    private List<RoleDefinition> value = new ArrayList<>();
+    private String nextLink;
+}
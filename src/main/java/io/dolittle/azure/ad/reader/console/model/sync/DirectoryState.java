@@ -0,0 +1,20 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.model.sync;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class DirectoryState {
+    private String usersDeltaLink;
+    private String groupsDeltaLink;
+    private String directoryRolesDeltaLink;
+    private List<AdUser> users = new ArrayList<>();
+    private List<AdGroup> groups = new ArrayList<>();
+}
@@ -0,0 +1,175 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.query;
+
+import io.dolittle.azure.ad.reader.console.client.GraphClient;
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.ScopeTrie;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.store.DirectoryStore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookups by principal, group, role and scope over one loaded directory.
+ * Built once per refresh and never changed afterwards, so it is read from any number of threads without locking.
+ * Users and groups are read from the sealed store, every lookup returns objects of its own.
+ */
+public class AccessIndex {
+    private static final int NOT_FOUND = -1;
+    private final DirectoryStore directoryStore;
+    private final RoleAssignmentIndex roleAssignmentIndex;
+    private final Map<String, Integer> userById = new HashMap<>();
+    private final Map<String, Integer> groupById = new HashMap<>();
+    private final Map<String, List<RoleAssignment>> byRole = new HashMap<>();
+    private final RoleHolderIndex roleHolderIndex;
+    private final ScopeTrie scopeTrie;
+    private final Instant loadedAt;
+
+    public AccessIndex(DirectoryStore directoryStore, Instant loadedAt) {
+        this.directoryStore = directoryStore;
+        this.roleAssignmentIndex = directoryStore.getRoleAssignmentIndex();
+        this.loadedAt = loadedAt;
+        for (int i = 0; i < directoryStore.getUserCount(); i++) {
+            userById.put(RoleAssignmentIndex.normalizeId(directoryStore.getUserId(i)), i);
+        }
+        for (int i = 0; i < directoryStore.getGroupCount(); i++) {
+            groupById.put(RoleAssignmentIndex.normalizeId(directoryStore.getGroupId(i)), i);
+        }
+        //A role is looked up by its name or by the id of its definition, the last segment of the definition path
+        for (RoleAssignment roleAssignment : roleAssignmentIndex.getAll()) {
+            RoleDefinition roleDefinition = roleAssignment.getRoleDefinition();
+            if (roleDefinition != null && roleDefinition.getProperties() != null) {
+                addRole(roleDefinition.getProperties().getRoleName(), roleAssignment);
+            }
+            if (roleAssignment.getProperties() != null) {
+                addRole(RoleHolderIndex.lastSegment(roleAssignment.getProperties().getRoleDefinitionId()), roleAssignment);
+            }
+        }
+        byRole.replaceAll((key, list) -> Collections.unmodifiableList(list));
+        roleHolderIndex = new RoleHolderIndex(directoryStore, userById, groupById);
+        scopeTrie = new ScopeTrie(roleAssignmentIndex);
+    }
+
+    public Instant getLoadedAt() {
+        return loadedAt;
+    }
+
+    public int getUserCount() {
+        return directoryStore.getUserCount();
+    }
+
+    public int getGroupCount() {
+        return directoryStore.getGroupCount();
+    }
+
+    public int getRoleAssignmentCount() {
+        return roleAssignmentIndex.size();
+    }
+
+    public int getRoleHolderCount() {
+        return roleHolderIndex.size();
+    }
+
+    /**
+     * @return the user with its groups, directory roles and role assignments, the assignments of its groups included,
+     * or null when there is no user with the id
+     */
+    public AdUser findUser(String id) {
+        int index = userById.getOrDefault(RoleAssignmentIndex.normalizeId(id), NOT_FOUND);
+        return index == NOT_FOUND ? null : directoryStore.getUser(index);
+    }
+
+    /**
+     * @return the group with its members and role assignments, or null when there is no group with the id
+     */
+    public AdGroup findGroup(String id) {
+        int index = groupById.getOrDefault(RoleAssignmentIndex.normalizeId(id), NOT_FOUND);
+        return index == NOT_FOUND ? null : directoryStore.getGroup(index);
+    }
+
+    /**
+     * @param role the role name, like Contributor, or the id of the role definition
+     */
+    public List<RoleAssignment> findByRole(String role) {
+        if (role == null) {
+            return Collections.emptyList();
+        }
+        return byRole.getOrDefault(role.toLowerCase(Locale.ROOT), Collections.emptyList());
+    }
+
+    /**
+     * @param role the role name or the id of the role definition
+     * @return every principal holding the role, directly or through nested groups, once for each assignment it holds it through
+     */
+    public List<RoleHolder> findHolders(String role) {
+        return roleHolderIndex.find(role);
+    }
+
+    /**
+     * @return the assignments made at exactly this scope
+     */
+    public List<RoleAssignment> findByScope(String scope) {
+        return roleAssignmentIndex.getByScope(scope);
+    }
+
+    /**
+     * @return the assignments in effect at the scope, those made at it, above it or at a management group above it
+     */
+    public List<RoleAssignment> findEffective(String scope) {
+        return scopeTrie.getEffective(scope);
+    }
+
+    /**
+     * @return every principal with access at the scope or anywhere below it, assigned directly or a transitive member
+     * of an assigned group, each once
+     */
+    public List<BaseData> findPrincipalsUnder(String scope) {
+        Set<String> principalIds = scopeTrie.getPrincipalIdsUnder(scope);
+        Map<String, BaseData> principals = new LinkedHashMap<>();
+        for (String principalId : principalIds) {
+            BaseData principal = new BaseData();
+            principal.setId(principalId);
+            Integer index = userById.get(principalId);
+            if (index != null) {
+                principal.setId(directoryStore.getUserId(index));
+                principal.setDisplayName(directoryStore.getUserDisplayName(index));
+                principal.setOdata_type(GraphClient.oDataType.USER.str());
+            } else if ((index = groupById.get(principalId)) != null) {
+                principal.setId(directoryStore.getGroupId(index));
+                principal.setDisplayName(directoryStore.getGroupDisplayName(index));
+                principal.setOdata_type(GraphClient.oDataType.GROUP.str());
+            }
+            principals.put(principalId, principal);
+        }
+        //The memberships in the store are transitive, so the members of an assigned group cover its nested groups
+        for (String principalId : principalIds) {
+            Integer index = groupById.get(principalId);
+            if (index != null) {
+                directoryStore.getGroup(index).getUsers()
+                        .forEach(member -> principals.putIfAbsent(RoleAssignmentIndex.normalizeId(member.getId()), member));
+            }
+        }
+        return new ArrayList<>(principals.values());
+    }
+
+    private void addRole(String key, RoleAssignment roleAssignment) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        byRole.computeIfAbsent(key.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(roleAssignment);
+    }
+}
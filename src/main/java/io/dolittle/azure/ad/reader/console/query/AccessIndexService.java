@@ -0,0 +1,104 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.query;
+
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import io.dolittle.azure.ad.reader.console.service.DirectoryLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link AccessIndex} and replaces it with a freshly loaded one at a fixed interval.
+ * Readers always see a complete index, the new one is swapped in with a single reference update once it is built.
+ * A failed refresh is logged and the previous index keeps answering.
+ */
+@Service
+@Slf4j
+public class AccessIndexService {
+    private final DirectoryLoader directoryLoader;
+    private final CrawlMetrics crawlMetrics;
+    private final Duration refreshInterval;
+    private final AtomicReference<AccessIndex> current = new AtomicReference<>();
+    private final Object refreshLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public AccessIndexService(DirectoryLoader directoryLoader, CrawlMetrics crawlMetrics,
+                              @Value("${query.refresh-interval:PT1H}") Duration refreshInterval) {
+        this.directoryLoader = directoryLoader;
+        this.crawlMetrics = crawlMetrics;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return the index of the last completed load, or null before the first one
+     */
+    public AccessIndex getIndex() {
+        return current.get();
+    }
+
+    /**
+     * Loads the directory and swaps in the index built from it. Only one refresh runs at a time.
+     */
+    public AccessIndex refresh() {
+        synchronized (refreshLock) {
+            long start = System.nanoTime();
+            AccessIndex accessIndex;
+            try {
+                accessIndex = new AccessIndex(directoryLoader.load(), Instant.now());
+            } finally {
+                crawlMetrics.recordPhase(CrawlMetrics.PHASE_REFRESH, System.nanoTime() - start);
+                crawlMetrics.writeReport();
+            }
+            current.set(accessIndex);
+            log.info("Access index refreshed in {} ms: {} users, {} groups, {} role assignments",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    accessIndex.getUserCount(), accessIndex.getGroupCount(), accessIndex.getRoleAssignmentCount());
+            return accessIndex;
+        }
+    }
+
+    /**
+     * Starts refreshing in the background, the first refresh one interval from now.
+     */
+    public synchronized void startRefreshing() {
+        if (scheduler != null || refreshInterval.isZero() || refreshInterval.isNegative()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "access-index-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = refreshInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Access index is refreshed every {}", refreshInterval);
+    }
+
+    @PreDestroy
+    public synchronized void stopRefreshing() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.error("Access index refresh failed, keeping the index loaded at {}", current.get().getLoadedAt(), e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.query;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers access lookups over a local HTTP API from the in-memory {@link AccessIndex}, all as GET returning JSON:
+ * <pre>
+ * /status                           when the index was loaded and what it holds
+ * /principals/{id}                  a user, or else a group, with its memberships and role assignments
+ * /users/{id}
+ * /groups/{id}
+ * /roles/{name or id}               the assignments of a role, by role name or role definition id
+ * /holders/{name or id}             every principal holding a role, directly or through nested groups, with the group path
+ * /scopes?scope={scope}             the assignments made at a scope
+ * /scopes/effective?scope={scope}   the assignments in effect at a scope, inherited from the scopes above it included
+ * /scopes/principals?scope={scope}  every principal with access at a scope or anywhere below it, members of assigned groups included
+ * </pre>
+ * The server starts before the first load, queries are answered with 503 until the index is there.
+ */
+@Component
+@Slf4j
+public class AccessQueryServer {
+    private static final String STATUS = "status";
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+    private final AccessIndexService accessIndexService;
+    private final CrawlMetrics crawlMetrics;
+    private final String address;
+    private final int port;
+    private final int threads;
+    private final Gson gson = new Gson();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService executorService;
+
+    @FunctionalInterface
+    private interface Route {
+        //Null when there is nothing at the requested path
+        Object answer(AccessIndex accessIndex, URI uri);
+    }
+
+    @Autowired
+    public AccessQueryServer(AccessIndexService accessIndexService, CrawlMetrics crawlMetrics,
+                             @Value("${query.server.address:127.0.0.1}") String address,
+                             @Value("${query.server.port:8080}") int port,
+                             @Value("${query.server.threads:4}") int threads) {
+        this.accessIndexService = accessIndexService;
+        this.crawlMetrics = crawlMetrics;
+        this.address = address;
+        this.port = port;
+        this.threads = threads;
+    }
+
+    /**
+     * Starts the server, loads the directory and keeps refreshing it until the application is shut down.
+     */
+    public void run() {
+        start();
+        try {
+            accessIndexService.refresh();
+        } catch (RuntimeException e) {
+            stop();
+            throw e;
+        }
+        accessIndexService.startRefreshing();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executorService.shutdownNow();
+            server = null;
+            log.info("Query server stopped");
+        }
+        stopped.countDown();
+    }
+
+    private synchronized void start() {
+        //Headers and body are written separately, with Nagle on every answer waits for the delayed ack of the client
+        if (System.getProperty(NO_DELAY) == null) {
+            System.setProperty(NO_DELAY, "true");
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to listen on " + address + ":" + port, e);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "query-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executorService);
+        addRoute("/" + STATUS, STATUS, (accessIndex, uri) -> status(accessIndex));
+        addRoute("/principals/", "principals", (accessIndex, uri) -> {
+            String id = pathArgument(uri, "/principals/");
+            AdUser adUser = accessIndex.findUser(id);
+            return adUser != null ? adUser : accessIndex.findGroup(id);
+        });
+        addRoute("/users/", "users", (accessIndex, uri) -> accessIndex.findUser(pathArgument(uri, "/users/")));
+        addRoute("/groups/", "groups", (accessIndex, uri) -> accessIndex.findGroup(pathArgument(uri, "/groups/")));
+        addRoute("/roles/", "roles", (accessIndex, uri) -> accessIndex.findByRole(pathArgument(uri, "/roles/")));
+        addRoute("/holders/", "holders", (accessIndex, uri) -> accessIndex.findHolders(pathArgument(uri, "/holders/")));
+        addRoute("/scopes", "scopes", (accessIndex, uri) -> accessIndex.findByScope(queryParameter(uri, "scope")));
+        addRoute("/scopes/effective", "scopes-effective", (accessIndex, uri) -> accessIndex.findEffective(queryParameter(uri, "scope")));
+        addRoute("/scopes/principals", "scopes-principals", (accessIndex, uri) -> accessIndex.findPrincipalsUnder(queryParameter(uri, "scope")));
+        server.start();
+        log.info("Answering queries on http://{}:{}", address, server.getAddress().getPort());
+    }
+
+    private void addRoute(String path, String name, Route route) {
+        server.createContext(path, exchange -> handle(exchange, name, route));
+    }
+
+    private void handle(HttpExchange exchange, String name, Route route) throws IOException {
+        long start = System.nanoTime();
+        int status;
+        try {
+            AccessIndex accessIndex = accessIndexService.getIndex();
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                status = send(exchange, 405, error("Only GET is supported"));
+            } else if (accessIndex == null && !STATUS.equals(name)) {
+                status = send(exchange, 503, error("The directory is still loading"));
+            } else {
+                Object answer = route.answer(accessIndex, exchange.getRequestURI());
+                status = answer == null ? send(exchange, 404, error("Not found")) : send(exchange, 200, answer);
+            }
+        } catch (IllegalArgumentException e) {
+            status = send(exchange, 400, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            log.error("Query {} failed", exchange.getRequestURI(), e);
+            status = send(exchange, 500, error("Query failed"));
+        } finally {
+            exchange.close();
+        }
+        crawlMetrics.recordQuery(name, status, System.nanoTime() - start);
+    }
+
+    private int send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        return status;
+    }
+
+    private static Map<String, Object> status(AccessIndex accessIndex) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("loaded", accessIndex != null);
+        if (accessIndex != null) {
+            status.put("loadedAt", accessIndex.getLoadedAt().toString());
+            status.put("users", accessIndex.getUserCount());
+            status.put("groups", accessIndex.getGroupCount());
+            status.put("roleAssignments", accessIndex.getRoleAssignmentCount());
+            status.put("roleHolders", accessIndex.getRoleHolderCount());
+        }
+        return status;
+    }
+
+    private static Map<String, String> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    private static String pathArgument(URI uri, String prefix) {
+        String argument = decode(uri.getRawPath().substring(prefix.length()));
+        if (argument.isEmpty()) {
+            throw new IllegalArgumentException("Missing id after " + prefix);
+        }
+        return argument;
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0 && name.equals(parameter.substring(0, separator))) {
+                    return decode(parameter.substring(separator + 1));
+                }
+            }
+        }
+        throw new IllegalArgumentException("Missing query parameter " + name);
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,25 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.query;
+
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A principal holding a role through one role assignment, either assigned directly or inherited through groups.
+ * The path lists the groups the role is inherited through, from the innermost group the principal is member of to the
+ * group the role is assigned to. It is empty when the role is assigned to the principal itself.
+ */
+@Data
+public class RoleHolder {
+    private String principalId;
+    private String principalType;
+    private String displayName;
+    private String roleAssignmentId;
+    private String roleName;
+    private String scope;
+    private List<Group> path;
+}
@@ -0,0 +1,229 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.query;
+
+import io.dolittle.azure.ad.reader.console.client.GraphClient;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.store.DirectoryStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex.normalizeId;
+
+/**
+ * Inverted index from a role definition to every principal holding it, assigned directly or inherited through nested
+ * groups, each with the path of groups it is inherited through.
+ * <p>
+ * The memberships in the store are transitive, so every member of an assigned group holds the role. The path is
+ * rebuilt from the nested groups among those members: the innermost nested group a member is part of is the next
+ * step, and so on up to the assigned group. Paths are shared between all members reached through the same group.
+ * <p>
+ * Each member gets this one path, also when it is reached through several nested groups. Listing every route would
+ * grow with the product of the nesting at each level, the innermost one is the most specific reason for the access.
+ */
+class RoleHolderIndex {
+    private static final String ODATA_TYPE_PREFIX = "#microsoft.graph.";
+    private static final String USER = "User";
+    private static final String GROUP = "Group";
+    private static final String UNKNOWN = "Unknown";
+
+    private final DirectoryStore directoryStore;
+    private final Map<String, Integer> userById;
+    private final Map<String, Integer> groupById;
+    private final Map<String, List<RoleHolder>> byRoleDefinitionId = new HashMap<>();
+    private final Map<String, String> roleDefinitionIdByName = new HashMap<>();
+    private final Map<Integer, Group> pathSteps = new HashMap<>();
+    private final Map<Integer, Set<String>> memberIds = new HashMap<>();
+    private int size;
+
+    RoleHolderIndex(DirectoryStore directoryStore, Map<String, Integer> userById, Map<String, Integer> groupById) {
+        this.directoryStore = directoryStore;
+        this.userById = userById;
+        this.groupById = groupById;
+        Map<Integer, GroupExpansion> expansions = new HashMap<>();
+        for (RoleAssignment roleAssignment : directoryStore.getRoleAssignmentIndex().getAll()) {
+            RoleAssignmentProperty properties = roleAssignment.getProperties();
+            String roleDefinitionId = properties == null ? null : normalizeId(lastSegment(properties.getRoleDefinitionId()));
+            if (roleDefinitionId == null) {
+                continue;
+            }
+            String roleName = roleName(roleAssignment);
+            if (roleName != null) {
+                roleDefinitionIdByName.putIfAbsent(roleName.toLowerCase(Locale.ROOT), roleDefinitionId);
+            }
+            List<RoleHolder> holders = byRoleDefinitionId.computeIfAbsent(roleDefinitionId, key -> new ArrayList<>());
+            String principalId = normalizeId(properties.getPrincipalId());
+            Integer group = groupById.get(principalId);
+            if (group == null) {
+                Integer user = userById.get(principalId);
+                holders.add(holder(roleAssignment, roleName, properties.getPrincipalId(), user == null ? UNKNOWN : USER,
+                        user == null ? null : directoryStore.getUserDisplayName(user), Collections.emptyList()));
+                continue;
+            }
+            holders.add(holder(roleAssignment, roleName, directoryStore.getGroupId(group), GROUP,
+                    directoryStore.getGroupDisplayName(group), Collections.emptyList()));
+            GroupExpansion expansion = expansions.computeIfAbsent(group, GroupExpansion::new);
+            for (int i = 0; i < expansion.members.size(); i++) {
+                User member = expansion.members.get(i);
+                holders.add(holder(roleAssignment, roleName, member.getId(), principalType(member.getOdata_type()),
+                        member.getDisplayName(), expansion.pathOf(i)));
+            }
+        }
+        byRoleDefinitionId.replaceAll((key, list) -> Collections.unmodifiableList(list));
+        byRoleDefinitionId.values().forEach(holders -> size += holders.size());
+    }
+
+    /**
+     * @param role the role name or the id of the role definition
+     */
+    List<RoleHolder> find(String role) {
+        if (role == null) {
+            return Collections.emptyList();
+        }
+        String key = role.toLowerCase(Locale.ROOT);
+        List<RoleHolder> holders = byRoleDefinitionId.get(key);
+        if (holders == null) {
+            holders = byRoleDefinitionId.get(roleDefinitionIdByName.get(key));
+        }
+        return holders == null ? Collections.emptyList() : holders;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private RoleHolder holder(RoleAssignment roleAssignment, String roleName, String principalId, String principalType,
+                              String displayName, List<Group> path) {
+        RoleHolder roleHolder = new RoleHolder();
+        roleHolder.setPrincipalId(principalId);
+        roleHolder.setPrincipalType(principalType);
+        roleHolder.setDisplayName(displayName);
+        roleHolder.setRoleAssignmentId(roleAssignment.getId());
+        roleHolder.setRoleName(roleName);
+        roleHolder.setScope(roleAssignment.getProperties().getScope());
+        roleHolder.setPath(path);
+        return roleHolder;
+    }
+
+    private Group pathStep(int group) {
+        return pathSteps.computeIfAbsent(group, index -> {
+            Group step = new Group();
+            step.setId(directoryStore.getGroupId(index));
+            step.setDisplayName(directoryStore.getGroupDisplayName(index));
+            step.setOdata_type(GraphClient.oDataType.GROUP.str());
+            return step;
+        });
+    }
+
+    private Set<String> memberIds(int group) {
+        return memberIds.computeIfAbsent(group, index -> {
+            Set<String> ids = new HashSet<>();
+            directoryStore.getGroup(index).getUsers().forEach(member -> ids.add(normalizeId(member.getId())));
+            return ids;
+        });
+    }
+
+    private static String roleName(RoleAssignment roleAssignment) {
+        RoleDefinition roleDefinition = roleAssignment.getRoleDefinition();
+        return roleDefinition == null || roleDefinition.getProperties() == null ? null : roleDefinition.getProperties().getRoleName();
+    }
+
+    //User, Group, ServicePrincipal, Device
+    private static String principalType(String odataType) {
+        if (odataType == null || !odataType.startsWith(ODATA_TYPE_PREFIX) || odataType.length() == ODATA_TYPE_PREFIX.length()) {
+            return UNKNOWN;
+        }
+        String type = odataType.substring(ODATA_TYPE_PREFIX.length());
+        return Character.toUpperCase(type.charAt(0)) + type.substring(1);
+    }
+
+    static String lastSegment(String path) {
+        return path == null ? null : path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * The members of one assigned group with the path each of them inherits its roles through.
+     */
+    private class GroupExpansion {
+        private final List<User> members;
+        private final List<Group> root;
+        //Normalized id to store index of the members that are groups themselves
+        private final Map<String, Integer> nestedGroups = new HashMap<>();
+        //Normalized member id to the nested groups it is part of, so a member only looks at the groups containing it
+        private final Map<String, List<String>> containers = new HashMap<>();
+        private final Map<String, List<Group>> nestedPaths = new HashMap<>();
+        private List<Group>[] memberPaths;
+
+        GroupExpansion(int group) {
+            members = directoryStore.getGroup(group).getUsers();
+            root = Collections.singletonList(pathStep(group));
+            for (User member : members) {
+                String memberId = normalizeId(member.getId());
+                Integer nestedGroup = groupById.get(memberId);
+                if (nestedGroup != null && nestedGroup != group) {
+                    nestedGroups.put(memberId, nestedGroup);
+                }
+            }
+            nestedGroups.forEach((nestedGroupId, nestedGroup) -> memberIds(nestedGroup)
+                    .forEach(memberId -> containers.computeIfAbsent(memberId, key -> new ArrayList<>()).add(nestedGroupId)));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Group> pathOf(int member) {
+            if (memberPaths == null) {
+                memberPaths = new List[members.size()];
+            }
+            if (memberPaths[member] == null) {
+                String container = innermostContainer(normalizeId(members.get(member).getId()));
+                memberPaths[member] = container == null ? root : pathFrom(container);
+            }
+            return memberPaths[member];
+        }
+
+        //The path starting at a nested group and ending at the assigned group
+        private List<Group> pathFrom(String nestedGroupId) {
+            List<Group> path = nestedPaths.get(nestedGroupId);
+            if (path == null) {
+                String container = innermostContainer(nestedGroupId);
+                List<Group> rest = container == null ? root : pathFrom(container);
+                path = new ArrayList<>(rest.size() + 1);
+                path.add(pathStep(nestedGroups.get(nestedGroupId)));
+                path.addAll(rest);
+                path = Collections.unmodifiableList(path);
+                nestedPaths.put(nestedGroupId, path);
+            }
+            return path;
+        }
+
+        /**
+         * The smallest nested group the member is part of. For a group the container must be strictly larger, which
+         * keeps groups nested in each other from pointing at one another.
+         */
+        private String innermostContainer(String memberId) {
+            Integer memberGroup = nestedGroups.get(memberId);
+            int memberSize = memberGroup == null ? -1 : memberIds(memberGroup).size();
+            String container = null;
+            int containerSize = Integer.MAX_VALUE;
+            for (String nestedGroupId : containers.getOrDefault(memberId, Collections.emptyList())) {
+                int size = memberIds(nestedGroups.get(nestedGroupId)).size();
+                if (size > memberSize && size < containerSize) {
+                    container = nestedGroupId;
+                    containerSize = size;
+                }
+            }
+            return container;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.report;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands every principal to several sinks, so one crawl can produce several exports.
+ */
+public class CompositeReportSink implements ReportSink {
+    private final List<ReportSink> sinks;
+
+    public CompositeReportSink(List<ReportSink> sinks) {
+        this.sinks = new ArrayList<>(sinks);
+    }
+
+    @Override
+    public void writeUser(AdUser adUser) throws IOException {
+        for (ReportSink sink : sinks) {
+            sink.writeUser(adUser);
+        }
+    }
+
+    @Override
+    public void writeGroup(AdGroup adGroup) throws IOException {
+        for (ReportSink sink : sinks) {
+            sink.writeGroup(adGroup);
+        }
+    }
+
+    @Override
+    public void complete() {
+        sinks.forEach(ReportSink::complete);
+    }
+
+    //Every sink is closed even when one of them fails, the first failure is rethrown
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ReportSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
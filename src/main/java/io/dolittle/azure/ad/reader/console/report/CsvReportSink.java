@@ -0,0 +1,66 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.report;
+
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+
+/**
+ * RFC 4180 CSV with a header line, a value is quoted only when it holds a comma, quote or line break.
+ * Null values are written as empty fields.
+ */
+public class CsvReportSink extends FlatReportSink {
+
+    public CsvReportSink(Path directory, String reportName, boolean gzip, CrawlMetrics crawlMetrics) throws IOException {
+        super(directory, reportName, ".csv", gzip, crawlMetrics);
+    }
+
+    @Override
+    protected void writeHeader(Writer writer, Table table) throws IOException {
+        writeRecord(writer, table, table.getColumns());
+    }
+
+    @Override
+    protected void writeRecord(Writer writer, Table table, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeValue(writer, values[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeValue(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.report;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinitionProperty;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import io.dolittle.azure.ad.reader.console.util.PrincipalTypeUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the report as flat records, one file per {@link Table}, streamed straight to disk.
+ * Each table is written to a .tmp file that is renamed over the previous one on close after {@link #complete()},
+ * and deleted when the sink is closed without it. Subclasses only decide how a record is encoded.
+ */
+public abstract class FlatReportSink implements ReportSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Table {
+        USERS("users", "userId", "displayName", "userType", "mail"),
+        USER_GROUPS("user-groups", "userId", "groupId", "displayName", "description"),
+        USER_DIRECTORY_ROLES("user-directory-roles", "userId", "roleId", "displayName"),
+        USER_ROLE_ASSIGNMENTS("user-role-assignments", "userId", "assignmentId", "roleName", "roleType", "principalType", "scope", "roleDescription"),
+        GROUPS("groups", "groupId", "displayName", "description", "groupTypes"),
+        GROUP_MEMBERS("group-members", "groupId", "memberId", "displayName"),
+        GROUP_ROLE_ASSIGNMENTS("group-role-assignments", "groupId", "assignmentId", "roleName", "roleType", "principalType", "scope", "roleDescription");
+
+        private final String name;
+        private final String[] columns;
+
+        Table(String name, String... columns) {
+            this.name = name;
+            this.columns = columns;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String[] getColumns() {
+            return columns.clone();
+        }
+    }
+
+    private final Map<Table, Writer> writers = new EnumMap<>(Table.class);
+    private final Map<Table, long[]> rowCounts = new EnumMap<>(Table.class);
+    private final Map<Table, Path> files = new EnumMap<>(Table.class);
+    private final String extension;
+    private final CrawlMetrics crawlMetrics;
+    private boolean completed;
+
+    protected FlatReportSink(Path directory, String reportName, String extension, boolean gzip, CrawlMetrics crawlMetrics) throws IOException {
+        this.extension = extension;
+        this.crawlMetrics = crawlMetrics;
+        try {
+            for (Table table : Table.values()) {
+                Path file = directory.resolve(reportName + "-" + table.getName() + extension + (gzip ? ".gz" : ""));
+                files.put(table, file);
+                OutputStream out = Files.newOutputStream(tempFile(file));
+                if (gzip) {
+                    out = new FastGzipOutputStream(out);
+                }
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+                writers.put(table, writer);
+                rowCounts.put(table, new long[1]);
+                writeHeader(writer, table);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    protected abstract void writeHeader(Writer writer, Table table) throws IOException;
+
+    protected abstract void writeRecord(Writer writer, Table table, String[] values) throws IOException;
+
+    @Override
+    public void writeUser(AdUser adUser) throws IOException {
+        String userId = adUser.getId();
+        write(Table.USERS, userId, adUser.getDisplayName(), adUser.getUserType(), adUser.getMail());
+        for (Group group : adUser.getGroup()) {
+            write(Table.USER_GROUPS, userId, group.getId(), group.getDisplayName(), group.getDescription());
+        }
+        for (Roles roles : adUser.getRoles()) {
+            write(Table.USER_DIRECTORY_ROLES, userId, roles.getId(), roles.getDisplayName());
+        }
+        for (RoleAssignment roleAssignment : adUser.getRoleAssignments()) {
+            writeRoleAssignment(Table.USER_ROLE_ASSIGNMENTS, userId, roleAssignment, PrincipalTypeUtil.getPrincipalType(adUser, roleAssignment));
+        }
+    }
+
+    @Override
+    public void writeGroup(AdGroup adGroup) throws IOException {
+        String groupId = adGroup.getId();
+        String groupTypes = adGroup.getGroupTypes() == null ? null : String.join(";", adGroup.getGroupTypes());
+        write(Table.GROUPS, groupId, adGroup.getDisplayName(), adGroup.getDescription(), groupTypes);
+        for (User member : adGroup.getUsers()) {
+            write(Table.GROUP_MEMBERS, groupId, member.getId(), member.getDisplayName());
+        }
+        for (RoleAssignment roleAssignment : adGroup.getRoleAssignments()) {
+            writeRoleAssignment(Table.GROUP_ROLE_ASSIGNMENTS, groupId, roleAssignment, PrincipalTypeUtil.getPrincipalType(adGroup));
+        }
+    }
+
+    @Override
+    public void complete() {
+        completed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Map.Entry<Table, Writer> entry : writers.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        writers.clear();
+        //The tables are only put in place together, a failed run leaves the previous ones
+        boolean keep = completed && failure == null;
+        for (Map.Entry<Table, Path> entry : files.entrySet()) {
+            Path file = entry.getValue();
+            try {
+                if (keep) {
+                    Files.move(tempFile(file), file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    crawlMetrics.countRows(entry.getKey().getName() + extension, rowCounts.get(entry.getKey())[0]);
+                } else {
+                    Files.deleteIfExists(tempFile(file));
+                }
+            } catch (IOException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        files.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Path tempFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    private static IOException addFailure(IOException failure, IOException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    private void writeRoleAssignment(Table table, String principalId, RoleAssignment roleAssignment, String principalType) throws IOException {
+        RoleDefinitionProperty definition = roleAssignment.getRoleDefinition() == null ? null : roleAssignment.getRoleDefinition().getProperties();
+        RoleAssignmentProperty properties = roleAssignment.getProperties();
+        write(table, principalId, roleAssignment.getId(),
+                definition == null ? null : definition.getRoleName(),
+                definition == null ? null : definition.getType(),
+                principalType,
+                properties == null ? null : properties.getScope(),
+                definition == null ? null : definition.getDescription());
+    }
+
+    private void write(Table table, String... values) throws IOException {
+        writeRecord(writers.get(table), table, values);
+        rowCounts.get(table)[0]++;
+    }
+
+    //The default level compresses a few percent better at several times the cost, too slow for exports of millions of rows
+    private static class FastGzipOutputStream extends GZIPOutputStream {
+        FastGzipOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
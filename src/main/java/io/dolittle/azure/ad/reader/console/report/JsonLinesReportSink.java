@@ -0,0 +1,96 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.report;
+
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * JSON Lines, one object per record keyed by the column names of the table. Null values are written as null.
+ * The records are encoded by hand, a JsonWriter per line would either allocate or flush for every record.
+ */
+public class JsonLinesReportSink extends FlatReportSink {
+
+    //The "column": prefix of every value, encoded once
+    private static final Map<Table, String[]> KEYS = new EnumMap<>(Table.class);
+
+    static {
+        for (Table table : Table.values()) {
+            String[] columns = table.getColumns();
+            String[] keys = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                keys[i] = "\"" + columns[i] + "\":";
+            }
+            KEYS.put(table, keys);
+        }
+    }
+
+    public JsonLinesReportSink(Path directory, String reportName, boolean gzip, CrawlMetrics crawlMetrics) throws IOException {
+        super(directory, reportName, ".jsonl", gzip, crawlMetrics);
+    }
+
+    @Override
+    protected void writeHeader(Writer writer, Table table) {
+        //The keys of every record name the columns
+    }
+
+    @Override
+    protected void writeRecord(Writer writer, Table table, String[] values) throws IOException {
+        String[] keys = KEYS.get(table);
+        writer.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(keys[i]);
+            if (values[i] == null) {
+                writer.write("null");
+            } else {
+                writeString(writer, values[i]);
+            }
+        }
+        writer.write("}\n");
+    }
+
+    //Runs of characters that need no escaping are written in one call
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String escaped = escape(value.charAt(i));
+            if (escaped != null) {
+                writer.write(value, from, i - from);
+                writer.write(escaped);
+                from = i + 1;
+            }
+        }
+        writer.write(value, from, value.length() - from);
+        writer.write('"');
+    }
+
+    private static String escape(char c) {
+        switch (c) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\t':
+                return "\\t";
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    return String.format("\\u%04x", (int) c);
+                }
+                return null;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.report;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the report one principal at a time, with memberships and role assignments populated.
+ * Users are written before groups. Closing a completed sink puts the output in place, closing it without
+ * {@link #complete()}, like after a failed crawl, discards the output and leaves the previous report as it was.
+ */
+public interface ReportSink extends Closeable {
+    void writeUser(AdUser adUser) throws IOException;
+
+    void writeGroup(AdGroup adGroup) throws IOException;
+
+    /**
+     * Marks every principal as written, called once before closing.
+     */
+    void complete();
+}
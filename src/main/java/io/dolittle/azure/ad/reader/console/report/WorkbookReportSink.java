@@ -0,0 +1,143 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.report;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.service.PagePipeline;
+import io.dolittle.azure.ad.reader.console.service.ReportSheet;
+import io.dolittle.azure.ad.reader.console.service.WorkbookService;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The xlsx report with its Users, Roles Assignment and Groups sheets, laid out by {@link WorkbookService}.
+ * When the workbook allows it each sheet is rendered on its own thread, fed with pages of users and groups.
+ */
+public class WorkbookReportSink implements ReportSink {
+    private static final int PAGE_SIZE = 256;
+    private static final int QUEUE_DEPTH = 4;
+
+    private final WorkbookService workbookService;
+    private final String fileName;
+    private final Workbook workbook;
+    private final ReportSheet usersSheet;
+    private final ReportSheet rolesSheet;
+    private final ReportSheet groupsSheet;
+    private final List<PagePipeline<?>> pipelines = new ArrayList<>();
+    private PagePipeline<AdUser> usersPipeline;
+    private PagePipeline<AdUser> rolesPipeline;
+    private PagePipeline<AdGroup> groupsPipeline;
+    private List<AdUser> userPage = new ArrayList<>(PAGE_SIZE);
+    private List<AdGroup> groupPage = new ArrayList<>(PAGE_SIZE);
+    private boolean completed;
+
+    public WorkbookReportSink(WorkbookService workbookService, String fileName) {
+        this.workbookService = workbookService;
+        this.fileName = fileName;
+        workbook = workbookService.createWorkbook();
+        usersSheet = workbookService.createUsersSheet(workbook);
+        rolesSheet = workbookService.createAzureRolesSheet(workbook);
+        groupsSheet = workbookService.createAdGroupSheet(workbook);
+        if (workbookService.canRenderInParallel(workbook)) {
+            usersPipeline = start("sheet-users", adUser -> workbookService.appendUser(adUser, usersSheet));
+            rolesPipeline = start("sheet-roles", adUser -> workbookService.appendAzureRoles(adUser, rolesSheet));
+            groupsPipeline = start("sheet-groups", adGroup -> workbookService.appendAdGroup(adGroup, groupsSheet));
+        }
+    }
+
+    @Override
+    public void writeUser(AdUser adUser) {
+        if (usersPipeline == null) {
+            workbookService.appendUser(adUser, usersSheet);
+            workbookService.appendAzureRoles(adUser, rolesSheet);
+            return;
+        }
+        userPage.add(adUser);
+        if (userPage.size() == PAGE_SIZE) {
+            submitUsers();
+        }
+    }
+
+    @Override
+    public void writeGroup(AdGroup adGroup) {
+        if (groupsPipeline == null) {
+            workbookService.appendAdGroup(adGroup, groupsSheet);
+            return;
+        }
+        groupPage.add(adGroup);
+        if (groupPage.size() == PAGE_SIZE) {
+            submitGroups();
+        }
+    }
+
+    @Override
+    public void complete() {
+        completed = true;
+    }
+
+    @Override
+    public void close() {
+        RuntimeException failure = null;
+        try {
+            if (usersPipeline != null) {
+                submitUsers();
+                submitGroups();
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        //Every pipeline is closed, so no sheet is still being rendered when the workbook is saved or discarded
+        for (PagePipeline<?> pipeline : pipelines) {
+            try {
+                pipeline.close();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else if (failure != e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null || !completed) {
+            workbookService.closeWorkbook(workbook);
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+        workbookService.orderSheets(workbook, usersSheet, rolesSheet, groupsSheet);
+        workbookService.saveWorkbook(workbook, fileName);
+    }
+
+    private <T> PagePipeline<T> start(String name, Consumer<T> append) {
+        PagePipeline<T> pipeline = new PagePipeline<>(name, QUEUE_DEPTH, append);
+        pipelines.add(pipeline);
+        return pipeline;
+    }
+
+    //Both user sheets render the same page, the users are only read once they are handed over
+    private void submitUsers() {
+        if (userPage.isEmpty()) {
+            return;
+        }
+        CompletableFuture<List<AdUser>> page = CompletableFuture.completedFuture(userPage);
+        userPage = new ArrayList<>(PAGE_SIZE);
+        usersPipeline.submit(page);
+        rolesPipeline.submit(page);
+    }
+
+    private void submitGroups() {
+        if (groupPage.isEmpty()) {
+            return;
+        }
+        CompletableFuture<List<AdGroup>> page = CompletableFuture.completedFuture(groupPage);
+        groupPage = new ArrayList<>(PAGE_SIZE);
+        groupsPipeline.submit(page);
+    }
+}
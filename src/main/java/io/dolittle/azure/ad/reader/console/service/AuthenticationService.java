@@ -5,62 +5,152 @@ package io.dolittle.azure.ad.reader.console.service;
 
 import com.microsoft.aad.msal4j.DeviceCode;
 import com.microsoft.aad.msal4j.DeviceCodeFlowParameters;
+import com.microsoft.aad.msal4j.IAccount;
 import com.microsoft.aad.msal4j.IAuthenticationResult;
 import com.microsoft.aad.msal4j.PublicClientApplication;
+import com.microsoft.aad.msal4j.SilentParameters;
+import io.dolittle.azure.ad.reader.console.auth.FileTokenCache;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.CharSequenceReader;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.File;
-import java.io.IOException;
-import java.io.Reader;
 import java.net.MalformedURLException;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/**
+ * Hands out access tokens for Graph and Azure management.
+ * Tokens are taken from the persistent MSAL cache or renewed with its refresh token, the device login is only used when
+ * neither works. Tokens are renewed in the background before they expire so long crawls keep running.
+ */
 @Service
 @Slf4j
 public class AuthenticationService {
     private final String appId;
     private final String authority;
     private final Environment env;
-    private final String TOKEN_PATH;
-    private HashMap<TokenSource, String> tokenCache = new HashMap<>();
-    private final Boolean STORE_TOKEN;
+    private final File tokenCacheFile;
+    private final Duration refreshBeforeExpiry;
+    private final Map<TokenSource, IAuthenticationResult> tokenCache = new ConcurrentHashMap<>();
+    private final Map<TokenSource, ScheduledFuture<?>> scheduledRefreshes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+    private PublicClientApplication app;
 
     public AuthenticationService(Environment env) {
         appId = env.getProperty("azure.app.client-id");
         authority = env.getProperty("azure.oauth.authorization-uri");
-        TOKEN_PATH = env.getProperty("file.output.path");
-        STORE_TOKEN = env.getProperty("debug.store.token", Boolean.class);
+        tokenCacheFile = new File(env.getProperty("auth.token-cache-file", System.getProperty("user.home") + "/.ad-reader/msal-token-cache.json"));
+        refreshBeforeExpiry = env.getProperty("auth.refresh-before-expiry", Duration.class, Duration.ofMinutes(5));
         this.env = env;
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public String authenticate(TokenSource source) {
-        String token = check4Token(source);
-        if (token.isEmpty()) {
-            token = doLogin(source);
+        IAuthenticationResult result = tokenCache.get(source);
+        if (isFresh(result)) {
+            return result.accessToken();
+        }
+        //Synchronized so parallel crawl workers never start more than one device login
+        synchronized (this) {
+            result = tokenCache.get(source);
+            if (isFresh(result)) {
+                return result.accessToken();
+            }
+            result = acquireSilently(source, result != null);
+            if (result == null) {
+                result = doLogin(source);
+            }
+            if (result == null) {
+                return null;
+            }
+            store(source, result);
+            return result.accessToken();
         }
-        return token;
     }
 
-    private String doLogin(TokenSource tokenSource) {
-        log.info("Authenticating!!");
-        PublicClientApplication app;
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private boolean isFresh(IAuthenticationResult result) {
+        return result != null && result.expiresOnDate().getTime() - System.currentTimeMillis() > refreshBeforeExpiry.toMillis();
+    }
+
+    private void store(TokenSource source, IAuthenticationResult result) {
+        tokenCache.put(source, result);
+        long delay = result.expiresOnDate().getTime() - System.currentTimeMillis() - refreshBeforeExpiry.toMillis();
+        ScheduledFuture<?> refresh = refresher.schedule(() -> refresh(source), Math.max(0, delay), TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = scheduledRefreshes.put(source, refresh);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private synchronized void refresh(TokenSource source) {
+        IAuthenticationResult result = acquireSilently(source, true);
+        if (result == null) {
+            log.warn("Unable to renew the {} token in the background", source);
+            return;
+        }
+        log.info("Renewed the {} token", source);
+        store(source, result);
+    }
+
+    private IAuthenticationResult acquireSilently(TokenSource tokenSource, boolean forceRefresh) {
+        PublicClientApplication app = getApp();
+        if (app == null) {
+            return null;
+        }
         try {
-            // Build the MSAL application object with
-            // app ID and authority
-            app = PublicClientApplication.builder(appId)
-                    .authority(authority)
+            Set<IAccount> accounts = app.getAccounts().join();
+            if (accounts.isEmpty()) {
+                return null;
+            }
+            SilentParameters parameters = SilentParameters.builder(getScope(tokenSource), accounts.iterator().next())
+                    .forceRefresh(forceRefresh)
                     .build();
-        } catch (MalformedURLException e) {
-            log.error(e.getMessage());
+            return app.acquireTokenSilently(parameters).join();
+        } catch (Exception e) {
+            log.info("No token for {} in the token cache: {}", tokenSource, e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized PublicClientApplication getApp() {
+        if (app == null) {
+            try {
+                // Build the MSAL application object with
+                // app ID, authority and the persistent token cache
+                app = PublicClientApplication.builder(appId)
+                        .authority(authority)
+                        .setTokenCacheAccessAspect(new FileTokenCache(tokenCacheFile))
+                        .build();
+            } catch (MalformedURLException e) {
+                log.error(e.getMessage());
+            }
+        }
+        return app;
+    }
+
+    private IAuthenticationResult doLogin(TokenSource tokenSource) {
+        log.info("Authenticating!!");
+        PublicClientApplication app = getApp();
+        if (app == null) {
             return null;
         }
 
@@ -83,15 +173,8 @@ public class AuthenticationService {
 
         if (result != null) {
             log.info("Got a token:");
-            try {
-                tokenCache.put(tokenSource, result.accessToken());
-                storeToken(result.accessToken(), tokenSource);
-            } catch (IOException e) {
-                log.error("Unable to store token", e);
-            }
-            return result.accessToken();
         }
-        return null;
+        return result;
     }
 
     private Set<String> getScope(TokenSource tokenSource) {
@@ -109,58 +192,9 @@ public class AuthenticationService {
         return scopes;
     }
 
-    private void storeToken(String token, TokenSource tokenSource) throws IOException {
-        if (!STORE_TOKEN) {
-            return;
-        }
-
-        Reader reader = new CharSequenceReader(token);
-        File targetFile = new File(TOKEN_PATH + tokenSource.str());
-        FileUtils.touch(targetFile);
-        byte[] buffer = IOUtils.toByteArray(reader, StandardCharsets.UTF_8);
-        FileUtils.writeByteArrayToFile(targetFile, buffer);
-
-        reader.close();
-    }
-
-    private String check4Token(TokenSource tokenSource) {
-        String cachedToken = tokenCache.get(tokenSource);
-        if (cachedToken != null && !cachedToken.isEmpty()) {
-            log.debug("Using token from cache.");
-            return cachedToken;
-        }
-
-        File file;
-        try {
-            file = FileUtils.getFile(getClass().getClassLoader()
-                    .getResource(tokenSource.str())
-                    .getPath());
-        } catch (NullPointerException e) {
-            log.info("No previous token file");
-            return "";
-        }
-
-        try {
-            String token = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
-            tokenCache.put(tokenSource, token);
-            return token;
-        } catch (IOException e) {
-            log.error("Unable to read token", e);
-        }
-        return "";
-    }
-
     public enum TokenSource {
-        GRAPH("graphToken.txt"),
-        MGT("mgtToken.txt");
-        private String source;
-
-        TokenSource(String source) {
-            this.source = source;
-        }
-        public String str() {
-            return this.source;
-        }
+        GRAPH,
+        MGT
     }
 
 }
@@ -0,0 +1,73 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Worker pool used to expand memberships for many principals at once.
+ * The number of concurrent HTTP calls is bounded separately by the client side RequestLimiter.
+ */
+@Service
+@Slf4j
+public class CrawlExecutor {
+    private final ExecutorService executorService;
+
+    @Autowired
+    public CrawlExecutor(@Value("${crawl.worker-threads:8}") int workerThreads) {
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, workerThreads), new CrawlThreadFactory());
+        log.info("Crawl workers: {}", workerThreads);
+    }
+
+    public <T> CompletableFuture<Void> submit(T item, Consumer<T> task) {
+        return CompletableFuture.runAsync(() -> task.accept(item), executorService);
+    }
+
+    public <T, R> CompletableFuture<R> supply(T item, Function<T, R> task) {
+        return CompletableFuture.supplyAsync(() -> task.apply(item), executorService);
+    }
+
+    public <T> void forEach(Collection<T> items, Consumer<T> task) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(submit(item, task));
+        }
+        awaitAll(futures);
+    }
+
+    public void awaitAll(List<CompletableFuture<Void>> futures) {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    private static class CrawlThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "crawl-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
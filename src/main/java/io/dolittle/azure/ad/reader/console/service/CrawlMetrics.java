@@ -0,0 +1,199 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Counters and latency timers for the crawl phases, HTTP calls, caches and the report.
+ * A summary of all meters is written to a file at the end of each run so runs can be compared.
+ */
+@Service
+@Slf4j
+public class CrawlMetrics {
+    public static final String PHASE_ROLE_ASSIGNMENTS = "role-assignments";
+    public static final String PHASE_ROLE_DEFINITIONS = "role-definitions";
+    public static final String PHASE_LIST_USERS = "list-users";
+    public static final String PHASE_LIST_GROUPS = "list-groups";
+    public static final String PHASE_EXPAND_USERS = "expand-users";
+    public static final String PHASE_EXPAND_GROUPS = "expand-groups";
+    public static final String PHASE_MEMBERSHIP_CLOSURE = "membership-closure";
+    public static final String PHASE_SYNC = "sync";
+    public static final String PHASE_SNAPSHOT = "snapshot";
+    public static final String PHASE_DIFF = "diff";
+    public static final String PHASE_RENDER = "render";
+    public static final String PHASE_SAVE_WORKBOOK = "save-workbook";
+    public static final String PHASE_RUN = "run";
+    public static final String PHASE_REFRESH = "refresh";
+
+    private static final String PHASE_TIMER = "crawl.phase";
+    private static final String REQUEST_TIMER = "http.requests";
+    private static final String QUERY_TIMER = "query.requests";
+    private static final String BYTES_COUNTER = "http.bytes.received";
+    private static final String PAGE_COUNTER = "crawl.pages";
+    private static final String OBJECT_COUNTER = "crawl.objects";
+    private static final String CACHE_COUNTER = "cache.lookups";
+    private static final String ROW_COUNTER = "report.rows";
+    private static final String ROW_TIMER = "report.row";
+    private static final String SHEET_TIMER = "report.sheet";
+    //The percentiles cover the whole run instead of the default two minute window
+    private static final Duration WHOLE_RUN = Duration.ofDays(1);
+
+    private final MeterRegistry registry;
+    private final boolean enabled;
+    private final File reportFile;
+    private final Map<String, Timer> phaseTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> rowTimers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CrawlMetrics(MeterRegistry registry,
+                        @Value("${metrics.enabled:true}") boolean enabled,
+                        @Value("${metrics.file:${file.output.path}run-metrics.txt}") String reportFile) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.reportFile = new File(reportFile);
+    }
+
+    public <T> T time(String phase, Supplier<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            recordPhase(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void time(String phase, Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            recordPhase(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void recordPhase(String phase, long nanos) {
+        phaseTimers.computeIfAbsent(phase, key -> timer(PHASE_TIMER, "phase", key)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time spent writing a single user or group, the phase timer covers the report as a whole.
+     */
+    public void recordRow(String type, long nanos) {
+        rowTimers.computeIfAbsent(type, key -> timer(ROW_TIMER, "type", key)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSheet(String sheet, long nanos) {
+        timer(SHEET_TIMER, "sheet", sheet).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRequest(String endpoint, String outcome, long nanos) {
+        timer(REQUEST_TIMER, "endpoint", endpoint, "outcome", outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordQuery(String route, int status, long nanos) {
+        timer(QUERY_TIMER, "route", route, "status", Integer.toString(status)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countBytes(String host, long bytes) {
+        registry.counter(BYTES_COUNTER, "host", host).increment(bytes);
+    }
+
+    public void countPage(String source) {
+        registry.counter(PAGE_COUNTER, "source", source).increment();
+    }
+
+    public void countObjects(String type, long count) {
+        registry.counter(OBJECT_COUNTER, "type", type).increment(count);
+    }
+
+    public void countCacheLookup(String cache, boolean hit) {
+        registry.counter(CACHE_COUNTER, "cache", cache, "result", hit ? "hit" : "miss").increment();
+    }
+
+    public void countRows(String sheet, long rows) {
+        registry.counter(ROW_COUNTER, "sheet", sheet).increment(rows);
+    }
+
+    /**
+     * Logs the phase timings and writes every meter to the metrics file.
+     */
+    public void writeReport() {
+        if (!enabled) {
+            return;
+        }
+        //The percentile gauges are left out, their values are part of the timer lines
+        List<Meter> meters = registry.getMeters().stream()
+                .filter(meter -> meter instanceof Timer || meter instanceof Counter)
+                .sorted(Comparator.comparing(CrawlMetrics::describe))
+                .collect(Collectors.toList());
+        meters.stream()
+                .filter(meter -> meter instanceof Timer && PHASE_TIMER.equals(meter.getId().getName()))
+                .forEach(meter -> log.info("Phase {}: {} ms", meter.getId().getTag("phase"), Math.round(((Timer) meter).totalTime(TimeUnit.MILLISECONDS))));
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8))) {
+            writer.println("# Run finished " + OffsetDateTime.now());
+            for (Meter meter : meters) {
+                writer.println(format(meter));
+            }
+            log.info("Metrics written to {}", reportFile);
+        } catch (IOException e) {
+            log.error("Unable to write metrics", e);
+        }
+    }
+
+    private Timer timer(String name, String... tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .distributionStatisticExpiry(WHOLE_RUN)
+                .distributionStatisticBufferLength(1)
+                .register(registry);
+    }
+
+    private static String format(Meter meter) {
+        if (meter instanceof Timer) {
+            Timer timer = (Timer) meter;
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            StringBuilder line = new StringBuilder(describe(meter))
+                    .append(String.format(" count=%d total=%.1fms mean=%.1fms max=%.1fms", snapshot.count(),
+                            snapshot.total(TimeUnit.MILLISECONDS), snapshot.mean(TimeUnit.MILLISECONDS), snapshot.max(TimeUnit.MILLISECONDS)));
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                line.append(String.format(" p%d=%.1fms", Math.round(percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS)));
+            }
+            return line.toString();
+        }
+        return describe(meter) + String.format(" count=%.0f", ((Counter) meter).count());
+    }
+
+    private static String describe(Meter meter) {
+        return meter.getId().getName() + meter.getId().getTags().stream()
+                .map(tag -> tag.getKey() + "=" + tag.getValue())
+                .collect(Collectors.joining(",", "{", "}"));
+    }
+}
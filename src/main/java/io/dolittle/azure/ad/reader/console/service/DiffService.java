@@ -0,0 +1,105 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.diff.DirectoryDiff;
+import io.dolittle.azure.ad.reader.console.diff.Fingerprint;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reports what changed in the directory since the previous run. The fingerprints of each run are stored so the next
+ * run can compare against them, the first run only stores them.
+ */
+@Service
+@Slf4j
+public class DiffService {
+    private final boolean enabled;
+    private final Path fingerprintFile;
+    private final Path reportFile;
+    private final List<String> privilegedRoles;
+
+    @Autowired
+    public DiffService(@Value("${diff.enabled:false}") boolean enabled,
+                       @Value("${diff.fingerprint-file:${file.output.path}fingerprints.bin}") String fingerprintFile,
+                       @Value("${diff.report-file:${file.output.path}Azure-AD-Users-changes.jsonl}") String reportFile,
+                       @Value("${diff.privileged-roles:Owner,Contributor,User Access Administrator,Global Administrator,Privileged Role Administrator}") String privilegedRoles) {
+        this.enabled = enabled;
+        this.fingerprintFile = Paths.get(fingerprintFile);
+        this.reportFile = Paths.get(reportFile);
+        this.privilegedRoles = Arrays.asList(privilegedRoles.split(","));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void diff(Iterable<AdUser> adUsers, Iterable<AdGroup> adGroups, RoleAssignmentIndex roleAssignmentIndex) {
+        Path nextFile = Paths.get(fingerprintFile + ".tmp");
+        DirectoryDiff directoryDiff = new DirectoryDiff(privilegedRoles);
+        try {
+            directoryDiff.fingerprint(adUsers, adGroups, roleAssignmentIndex, nextFile);
+        } catch (IOException e) {
+            log.error("Unable to store fingerprints", e);
+            deleteQuietly(nextFile);
+            return;
+        }
+        long recordCount = directoryDiff.getSummary().getRecordCount();
+        if (!Files.exists(fingerprintFile)) {
+            log.info("No fingerprints of a previous run, storing {} records to compare the next run against", recordCount);
+        } else {
+            try {
+                DirectoryDiff.Summary summary = directoryDiff.compare(fingerprintFile, nextFile, reportFile);
+                logSummary(summary);
+            } catch (IOException | RuntimeException e) {
+                //Keeping the previous fingerprints lets the next run report the changes this one missed
+                log.error("Unable to compare with the fingerprints of the previous run, keeping them", e);
+                deleteQuietly(nextFile);
+                return;
+            }
+        }
+        try {
+            Files.move(nextFile, fingerprintFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Unable to store fingerprints", e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Unable to delete {}", path, e);
+        }
+    }
+
+    private void logSummary(DirectoryDiff.Summary summary) {
+        log.info("Compared {} records with the previous run, {} changes written to {}",
+                summary.getRecordCount(), summary.getTotal(), reportFile);
+        for (Fingerprint.Kind kind : Fingerprint.Kind.values()) {
+            int added = summary.getCount(kind, DirectoryDiff.ADDED);
+            int removed = summary.getCount(kind, DirectoryDiff.REMOVED);
+            int changed = summary.getCount(kind, DirectoryDiff.CHANGED);
+            if (added + removed + changed > 0) {
+                log.info("{}: {} added, {} removed, {} changed", kind.str(), added, removed, changed);
+            }
+        }
+        if (summary.getPrivilegedAdded() > 0) {
+            log.warn("{} role assignments or directory role memberships of a privileged role were added or changed", summary.getPrivilegedAdded());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.client.GraphBatchClient;
+import io.dolittle.azure.ad.reader.console.client.GraphObjectReader;
+import io.dolittle.azure.ad.reader.console.client.GraphRestClient;
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+import io.dolittle.azure.ad.reader.console.store.DirectoryStore;
+import io.dolittle.azure.ad.reader.console.store.SpillStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Pages through the users and groups of the directory and expands their memberships on the crawl workers.
+ * Every page is handed on as a future that completes once all principals on it are expanded.
+ * Graph responses are read as a stream straight into the reader's models, see GraphObjectReader.
+ */
+@Service
+@Slf4j
+public class DirectoryCrawler {
+    //Same as the default Graph page size, used when handing on groups resolved by the local closure
+    private static final int CLOSURE_PAGE_SIZE = 100;
+    private static final String path_Users = "/users?$select=id,displayName,mail,userType&$orderby=displayName";
+    private static final String path_Groups = "/groups?$select=id,displayName,description,groupTypes&$orderby=displayName";
+    private static final String path_DirectoryRoles = "/directoryRoles?$select=id,displayName,description";
+    private static final String path_UserMemberOf = "/users/%s/transitiveMemberOf";
+    private static final String path_GroupMembers = "/groups/%s/transitiveMembers";
+    private final GraphRestClient graphRestClient;
+    private final GraphBatchClient graphBatchClient;
+    private final CrawlExecutor crawlExecutor;
+    private final CrawlMetrics crawlMetrics;
+    private final boolean batchEnabled;
+    private final boolean localClosure;
+    private final int queueDepth;
+    private final AtomicReference<MembershipClosure> membershipClosure = new AtomicReference<>();
+
+    @Autowired
+    public DirectoryCrawler(GraphRestClient graphRestClient, GraphBatchClient graphBatchClient, CrawlExecutor crawlExecutor, CrawlMetrics crawlMetrics,
+                            @Value("${graph.batch.enabled:true}") boolean batchEnabled,
+                            @Value("${membership.local-closure:false}") boolean localClosure,
+                            @Value("${pipeline.queue-depth:4}") int queueDepth) {
+        this.graphRestClient = graphRestClient;
+        this.graphBatchClient = graphBatchClient;
+        this.crawlExecutor = crawlExecutor;
+        this.crawlMetrics = crawlMetrics;
+        this.batchEnabled = batchEnabled;
+        this.localClosure = localClosure;
+        this.queueDepth = queueDepth;
+    }
+
+    public List<AdUser> listUsers() {
+        List<AdUser> adUserList = new ArrayList<>();
+        inOrder(this::crawlUsers, adUserList::addAll);
+        return adUserList;
+    }
+
+    public List<AdGroup> listGroups() {
+        List<AdGroup> adGroupList = new ArrayList<>();
+        inOrder(this::crawlGroups, adGroupList::addAll);
+        return adGroupList;
+    }
+
+    /**
+     * Adds the users to the store page by page, as soon as each page is expanded.
+     */
+    public void storeUsers(DirectoryStore directoryStore) {
+        inOrder(this::crawlUsers, directoryStore::addUsers);
+    }
+
+    public void storeGroups(DirectoryStore directoryStore) {
+        inOrder(this::crawlGroups, directoryStore::addGroups);
+    }
+
+    public void storeUsers(SpillStore spillStore) {
+        inOrder(this::crawlUsers, spillStore::addUsers);
+    }
+
+    public void storeGroups(SpillStore spillStore) {
+        inOrder(this::crawlGroups, spillStore::addGroups);
+    }
+
+    /**
+     * With the local closure enabled the memberships are resolved before the first user is listed,
+     * and the closure is kept for the crawlGroups call that follows.
+     */
+    public void crawlUsers(Consumer<CompletableFuture<List<AdUser>>> pageConsumer) {
+        MembershipClosure closure = null;
+        if (localClosure) {
+            closure = crawlMetrics.time(CrawlMetrics.PHASE_MEMBERSHIP_CLOSURE, this::buildMembershipClosure);
+            membershipClosure.set(closure);
+        }
+        MembershipClosure usersClosure = closure;
+        List<CompletableFuture<Void>> expansions = new ArrayList<>();
+        long start = System.nanoTime();
+        crawlMetrics.time(CrawlMetrics.PHASE_LIST_USERS, () -> listUserPages(usersClosure, tracked(expansions, pageConsumer)));
+        if (usersClosure == null) {
+            awaitExpansions(CrawlMetrics.PHASE_EXPAND_USERS, start, expansions);
+        }
+    }
+
+    private void listUserPages(MembershipClosure closure, Consumer<CompletableFuture<List<AdUser>>> pageConsumer) {
+        log.info("Listing all users:");
+        listPages(path_Users, GraphObjectReader::readAdUser, pageUsers -> {
+            crawlMetrics.countPage("users");
+            crawlMetrics.countObjects("user", pageUsers.size());
+            pageConsumer.accept(closure != null ? CompletableFuture.completedFuture(closure.populateUsers(pageUsers)) : expandAdUsers(pageUsers));
+        });
+    }
+
+    public void crawlGroups(Consumer<CompletableFuture<List<AdGroup>>> pageConsumer) {
+        if (localClosure) {
+            MembershipClosure closure = membershipClosure.getAndSet(null);
+            if (closure == null) {
+                closure = crawlMetrics.time(CrawlMetrics.PHASE_MEMBERSHIP_CLOSURE, this::buildMembershipClosure);
+            }
+            for (List<AdGroup> pageGroups : partition(closure.getGroups(), CLOSURE_PAGE_SIZE)) {
+                pageConsumer.accept(CompletableFuture.completedFuture(closure.populateGroups(pageGroups)));
+            }
+            return;
+        }
+        List<CompletableFuture<Void>> expansions = new ArrayList<>();
+        long start = System.nanoTime();
+        crawlMetrics.time(CrawlMetrics.PHASE_LIST_GROUPS, () -> listGroupPages(tracked(expansions, pageConsumer)));
+        awaitExpansions(CrawlMetrics.PHASE_EXPAND_GROUPS, start, expansions);
+    }
+
+    private static <T> Consumer<CompletableFuture<List<T>>> tracked(List<CompletableFuture<Void>> expansions, Consumer<CompletableFuture<List<T>>> pageConsumer) {
+        return page -> {
+            expansions.add(page.thenAccept(done -> { }));
+            pageConsumer.accept(page);
+        };
+    }
+
+    /**
+     * The pages are expanded concurrently on the crawl threads, so the phase is timed once from the first page
+     * until every expansion has finished rather than per batch.
+     */
+    private void awaitExpansions(String phase, long start, List<CompletableFuture<Void>> expansions) {
+        crawlExecutor.awaitAll(expansions);
+        crawlMetrics.recordPhase(phase, System.nanoTime() - start);
+    }
+
+    private void listGroupPages(Consumer<CompletableFuture<List<AdGroup>>> pageConsumer) {
+        log.info("Listing groups:");
+        listPages(path_Groups, GraphObjectReader::readAdGroup, pageGroups -> {
+            crawlMetrics.countPage("groups");
+            crawlMetrics.countObjects("group", pageGroups.size());
+            pageConsumer.accept(expandAdGroups(pageGroups));
+        });
+    }
+
+    /**
+     * Expands the memberships of users that were not fetched through crawlUsers, e.g. users changed since the last sync.
+     */
+    public void expandUsers(List<AdUser> adUsers) {
+        crawlMetrics.time(CrawlMetrics.PHASE_EXPAND_USERS, () -> expandAdUsers(adUsers).join());
+    }
+
+    public void expandGroups(List<AdGroup> adGroups) {
+        crawlMetrics.time(CrawlMetrics.PHASE_EXPAND_GROUPS, () -> expandAdGroups(adGroups).join());
+    }
+
+    /**
+     * Fetches every group and directory role with its direct members once and resolves nesting locally,
+     * instead of asking Graph for the transitive memberships of every user and group.
+     */
+    private MembershipClosure buildMembershipClosure() {
+        log.info("Resolving memberships locally:");
+        MembershipClosure closure = new MembershipClosure();
+
+        List<String> groupIds = new ArrayList<>();
+        listPages(path_Groups, GraphObjectReader::readAdGroup, pageGroups -> pageGroups.forEach(adGroup -> {
+            closure.addGroup(adGroup);
+            groupIds.add(adGroup.getId());
+        }));
+
+        List<String> directoryRoleIds = new ArrayList<>();
+        listPages(path_DirectoryRoles, GraphObjectReader::readRoles, pageRoles -> pageRoles.forEach(roles -> {
+            closure.addDirectoryRole(roles);
+            directoryRoleIds.add(roles.getId());
+        }));
+
+        List<CompletableFuture<Map<String, List<User>>>> lookups = new ArrayList<>();
+        partition(groupIds, graphBatchClient.getBatchSize())
+                .forEach(batch -> lookups.add(crawlExecutor.supply(batch, graphBatchClient::getGroupDirectMembers)));
+        partition(directoryRoleIds, graphBatchClient.getBatchSize())
+                .forEach(batch -> lookups.add(crawlExecutor.supply(batch, graphBatchClient::getDirectoryRoleMembers)));
+        for (CompletableFuture<Map<String, List<User>>> lookup : lookups) {
+            lookup.join().forEach(closure::addDirectMembers);
+        }
+
+        closure.compute();
+        log.info("Resolved memberships of {} groups and {} directory roles", groupIds.size(), directoryRoleIds.size());
+        return closure;
+    }
+
+    private CompletableFuture<List<AdUser>> expandAdUsers(List<AdUser> adUsers) {
+        List<CompletableFuture<Void>> expansions;
+        if (batchEnabled) {
+            expansions = partition(adUsers, graphBatchClient.getBatchSize()).stream()
+                    .map(batch -> crawlExecutor.submit(batch, this::populateDirectoryObjects))
+                    .collect(Collectors.toList());
+        } else {
+            expansions = adUsers.stream().map(adUser -> crawlExecutor.submit(adUser, this::populateDirectoryObjects)).collect(Collectors.toList());
+        }
+        return CompletableFuture.allOf(expansions.toArray(new CompletableFuture[0])).thenApply(done -> adUsers);
+    }
+
+    private CompletableFuture<List<AdGroup>> expandAdGroups(List<AdGroup> adGroups) {
+        List<CompletableFuture<Void>> expansions;
+        if (batchEnabled) {
+            expansions = partition(adGroups, graphBatchClient.getBatchSize()).stream()
+                    .map(batch -> crawlExecutor.submit(batch, this::populateAdGroupMembers))
+                    .collect(Collectors.toList());
+        } else {
+            expansions = adGroups.stream().map(adGroup -> crawlExecutor.submit(adGroup, this::populateAdGroupMembers)).collect(Collectors.toList());
+        }
+        return CompletableFuture.allOf(expansions.toArray(new CompletableFuture[0])).thenApply(done -> adGroups);
+    }
+
+    private void populateDirectoryObjects(List<AdUser> adUsers) {
+        List<String> userIds = adUsers.stream().map(AdUser::getId).collect(Collectors.toList());
+        Map<String, List<BaseData>> memberOf = graphBatchClient.getUserMemberOf(userIds);
+        adUsers.forEach(adUser -> addMemberships(adUser, memberOf.get(adUser.getId())));
+    }
+
+    public void populateDirectoryObjects(AdUser adUser) {
+        listPages(String.format(path_UserMemberOf, adUser.getId()), GraphObjectReader::readMembership, page -> addMemberships(adUser, page));
+    }
+
+    private static void addMemberships(AdUser adUser, List<BaseData> memberships) {
+        for (BaseData membership : memberships) {
+            if (membership instanceof Group) {
+                adUser.getGroup().add((Group) membership);
+            } else if (membership instanceof Roles) {
+                adUser.getRoles().add((Roles) membership);
+            }
+        }
+    }
+
+    private void populateAdGroupMembers(List<AdGroup> adGroups) {
+        List<String> groupIds = adGroups.stream().map(AdGroup::getId).collect(Collectors.toList());
+        Map<String, List<User>> members = graphBatchClient.getGroupMembers(groupIds);
+        adGroups.forEach(adGroup -> adGroup.setUsers(members.get(adGroup.getId())));
+    }
+
+    private void populateAdGroupMembers(AdGroup adGroup) {
+        List<User> userList = new ArrayList<>();
+        listPages(String.format(path_GroupMembers, adGroup.getId()), GraphObjectReader::readMember, userList::addAll);
+        adGroup.setUsers(userList);
+    }
+
+    /**
+     * Follows the @odata.nextLink of a collection, handing on every page once it is read.
+     */
+    private <T> void listPages(String path, GraphObjectReader.Parser<T> parser, Consumer<List<T>> pageConsumer) {
+        String next = path;
+        while (next != null) {
+            List<T> page = new ArrayList<>();
+            next = graphRestClient.getPage(next, parser, page);
+            pageConsumer.accept(page);
+            if (next != null) {
+                log.info("nextpage: {}", next);
+            }
+        }
+    }
+
+    //Hands on the expanded pages in listing order, without waiting for the pages behind the first unfinished one.
+    //Once more than queueDepth pages are pending the listing waits for the oldest one, like the pipeline's queue
+    private <T> void inOrder(Consumer<Consumer<CompletableFuture<List<T>>>> crawl, Consumer<List<T>> pageConsumer) {
+        Deque<CompletableFuture<List<T>>> pending = new ArrayDeque<>();
+        crawl.accept(page -> {
+            pending.add(page);
+            while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > queueDepth)) {
+                pageConsumer.accept(pending.poll().join());
+            }
+        });
+        while (!pending.isEmpty()) {
+            pageConsumer.accept(pending.poll().join());
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> list, int size) {
+        List<List<T>> partitions = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += size) {
+            partitions.add(list.subList(from, Math.min(from + size, list.size())));
+        }
+        return partitions;
+    }
+}
@@ -0,0 +1,136 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.sync.DirectoryState;
+import io.dolittle.azure.ad.reader.console.snapshot.SnapshotReader;
+import io.dolittle.azure.ad.reader.console.store.DirectoryStore;
+import io.dolittle.azure.ad.reader.console.store.SpillStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Loads the whole directory into a sealed {@link DirectoryStore}, from Graph and Azure or from the snapshot
+ * depending on report.source, or crawls it into a disk-backed {@link SpillStore} for tenants larger than the heap.
+ */
+@Service
+@Slf4j
+public class DirectoryLoader {
+    public static final String SOURCE_SNAPSHOT = "snapshot";
+    private final DirectoryCrawler directoryCrawler;
+    private final RoleAssignmentService roleAssignmentService;
+    private final IncrementalSyncService incrementalSyncService;
+    private final SnapshotService snapshotService;
+    private final CrawlMetrics crawlMetrics;
+    private final boolean incrementalSync;
+    private final String source;
+    private final Path spillDirectory;
+    private final long spillBufferSize;
+    private final boolean spillCompress;
+
+    @Autowired
+    public DirectoryLoader(DirectoryCrawler directoryCrawler, RoleAssignmentService roleAssignmentService,
+                           IncrementalSyncService incrementalSyncService, SnapshotService snapshotService, CrawlMetrics crawlMetrics,
+                           @Value("${sync.incremental:false}") boolean incrementalSync,
+                           @Value("${report.source:graph}") String source,
+                           @Value("${store.spill.directory:${java.io.tmpdir}}") String spillDirectory,
+                           @Value("${store.spill.buffer-size:67108864}") long spillBufferSize,
+                           @Value("${store.spill.compress:true}") boolean spillCompress) {
+        this.directoryCrawler = directoryCrawler;
+        this.roleAssignmentService = roleAssignmentService;
+        this.incrementalSyncService = incrementalSyncService;
+        this.snapshotService = snapshotService;
+        this.crawlMetrics = crawlMetrics;
+        this.incrementalSync = incrementalSync;
+        this.source = source;
+        this.spillDirectory = Paths.get(spillDirectory);
+        this.spillBufferSize = spillBufferSize;
+        this.spillCompress = spillCompress;
+    }
+
+    public boolean isSnapshotSource() {
+        return SOURCE_SNAPSHOT.equalsIgnoreCase(source);
+    }
+
+    public DirectoryStore load() {
+        DirectoryStore directoryStore = isSnapshotSource() ? loadFromSnapshot() : loadFromGraph();
+        log.info("Total users: {}", directoryStore.getUserCount());
+        log.info("Total groups: {}", directoryStore.getGroupCount());
+        return directoryStore;
+    }
+
+    /**
+     * Crawls the directory, or brings the stored one up to date with incremental sync, and stores a snapshot of it
+     * when snapshots are enabled.
+     */
+    public DirectoryStore loadFromGraph() {
+        RoleAssignmentIndex roleAssignmentIndex = roleAssignmentService.getRoleAssignmentIndex();
+        DirectoryStore directoryStore = new DirectoryStore(roleAssignmentIndex);
+        if (incrementalSync) {
+            DirectoryState directoryState = crawlMetrics.time(CrawlMetrics.PHASE_SYNC, incrementalSyncService::sync);
+            directoryStore.addUsers(directoryState.getUsers());
+            directoryStore.addGroups(directoryState.getGroups());
+        } else {
+            directoryCrawler.storeUsers(directoryStore);
+            directoryCrawler.storeGroups(directoryStore);
+        }
+        directoryStore.seal();
+
+        if (snapshotService.isEnabled()) {
+            crawlMetrics.time(CrawlMetrics.PHASE_SNAPSHOT, () -> snapshotService.save(directoryStore.getUsers(), directoryStore.getGroups(), roleAssignmentIndex));
+        }
+        return directoryStore;
+    }
+
+    /**
+     * Crawls the directory into a spill store, sorted by display name, and stores a snapshot of it when snapshots are
+     * enabled. The caller closes the store, which deletes its files.
+     */
+    public SpillStore loadSpilled() {
+        RoleAssignmentIndex roleAssignmentIndex = roleAssignmentService.getRoleAssignmentIndex();
+        SpillStore spillStore;
+        try {
+            spillStore = new SpillStore(roleAssignmentIndex, spillDirectory, spillBufferSize, spillCompress);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create spill folder in " + spillDirectory, e);
+        }
+        try {
+            directoryCrawler.storeUsers(spillStore);
+            directoryCrawler.storeGroups(spillStore);
+            spillStore.seal();
+            //The writer streams strings to the file and only remembers the recent ones, it keeps 8 bytes per record
+            if (snapshotService.isEnabled()) {
+                crawlMetrics.time(CrawlMetrics.PHASE_SNAPSHOT, () -> snapshotService.save(spillStore.getUsers(), spillStore.getGroups(), roleAssignmentIndex));
+            }
+        } catch (RuntimeException e) {
+            spillStore.close();
+            throw e;
+        }
+        log.info("Total users: {}", spillStore.getUserCount());
+        log.info("Total groups: {}", spillStore.getGroupCount());
+        log.info("Spilled {} sorted runs to {}", spillStore.getRunCount(), spillDirectory);
+        return spillStore;
+    }
+
+    public DirectoryStore loadFromSnapshot() {
+        try (SnapshotReader snapshotReader = snapshotService.openReader()) {
+            DirectoryStore directoryStore = new DirectoryStore(new RoleAssignmentIndex(snapshotReader.getRoleAssignments()));
+            //The users and groups of the snapshot carry their role assignments, the store joins them from the index instead
+            directoryStore.addUsers(snapshotReader.getUsers());
+            directoryStore.addGroups(snapshotReader.getGroups());
+            directoryStore.seal();
+            return directoryStore;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read snapshot", e);
+        }
+    }
+}
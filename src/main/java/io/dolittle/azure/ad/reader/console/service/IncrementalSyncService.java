@@ -0,0 +1,278 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.dolittle.azure.ad.reader.console.client.GraphDeltaClient;
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.sync.DirectoryState;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a local copy of the directory up to date with Graph delta queries.
+ * Only principals touched by a change get their memberships expanded again.
+ */
+@Service
+@Slf4j
+public class IncrementalSyncService {
+    private static final Comparator<BaseData> BY_DISPLAY_NAME = Comparator.comparing(BaseData::getDisplayName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+    private final GraphDeltaClient graphDeltaClient;
+    private final DirectoryCrawler directoryCrawler;
+    private final File stateFile;
+    private final Gson gson = new Gson();
+
+    @Autowired
+    public IncrementalSyncService(GraphDeltaClient graphDeltaClient, DirectoryCrawler directoryCrawler,
+                                  @Value("${sync.state-file:${file.output.path}directory-state.json}") String stateFile) {
+        this.graphDeltaClient = graphDeltaClient;
+        this.directoryCrawler = directoryCrawler;
+        this.stateFile = new File(stateFile);
+    }
+
+    public DirectoryState sync() {
+        DirectoryState state = loadState();
+        if (state == null) {
+            state = fullSync();
+        } else {
+            try {
+                state = deltaSync(state);
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode() != HttpStatus.GONE) {
+                    throw e;
+                }
+                log.info("Delta link expired, falling back to a full crawl");
+                state = fullSync();
+            }
+        }
+        saveState(state);
+        return state;
+    }
+
+    private DirectoryState fullSync() {
+        log.info("Running a full directory crawl");
+        DirectoryState state = new DirectoryState();
+        //Fetch the links first so changes made while crawling are picked up by the next sync
+        state.setUsersDeltaLink(graphDeltaClient.getLatestUsersDeltaLink());
+        state.setGroupsDeltaLink(graphDeltaClient.getLatestGroupsDeltaLink());
+        state.setDirectoryRolesDeltaLink(graphDeltaClient.getLatestDirectoryRolesDeltaLink());
+        state.setUsers(directoryCrawler.listUsers());
+        state.setGroups(directoryCrawler.listGroups());
+        return state;
+    }
+
+    private DirectoryState deltaSync(DirectoryState state) {
+        GraphDeltaClient.DeltaResult userChanges = graphDeltaClient.getUsersDelta(state.getUsersDeltaLink());
+        GraphDeltaClient.DeltaResult groupChanges = graphDeltaClient.getGroupsDelta(state.getGroupsDeltaLink());
+        GraphDeltaClient.DeltaResult roleChanges = graphDeltaClient.getDirectoryRolesDelta(state.getDirectoryRolesDeltaLink());
+
+        Map<String, AdUser> users = new LinkedHashMap<>();
+        state.getUsers().forEach(adUser -> users.put(adUser.getId(), adUser));
+        Map<String, AdGroup> groups = new LinkedHashMap<>();
+        state.getGroups().forEach(adGroup -> groups.put(adGroup.getId(), adGroup));
+
+        boolean principalsChanged = !userChanges.getChanges().isEmpty() || !groupChanges.getChanges().isEmpty();
+        Map<String, Set<String>> containingGroups = principalsChanged ? getContainingGroups(groups) : Map.of();
+        Set<String> usersToExpand = new HashSet<>();
+        Set<String> groupsToExpand = new HashSet<>();
+
+        for (JsonObject change : userChanges.getChanges()) {
+            String id = change.get("id").getAsString();
+            //Groups list their members by name, so the groups holding a changed user are expanded again
+            groupsToExpand.addAll(containingGroups.getOrDefault(id, Set.of()));
+            if (change.has("@removed")) {
+                users.remove(id);
+                continue;
+            }
+            AdUser adUser = users.get(id);
+            if (adUser == null) {
+                users.put(id, gson.fromJson(change, AdUser.class));
+            } else {
+                mergeUser(adUser, change);
+            }
+            usersToExpand.add(id);
+        }
+
+        for (JsonObject change : groupChanges.getChanges()) {
+            String id = change.get("id").getAsString();
+            //Everything below or above a changed group sees the change through its transitive memberships
+            addTransitiveMembers(id, groups, usersToExpand);
+            groupsToExpand.addAll(containingGroups.getOrDefault(id, Set.of()));
+            if (change.has("@removed")) {
+                groups.remove(id);
+                continue;
+            }
+            AdGroup adGroup = groups.get(id);
+            if (adGroup == null) {
+                groups.put(id, gson.fromJson(change, AdGroup.class));
+            } else {
+                mergeGroup(adGroup, change);
+            }
+            groupsToExpand.add(id);
+            addChangedMembers(change, groups, usersToExpand);
+        }
+
+        for (JsonObject change : roleChanges.getChanges()) {
+            String id = change.get("id").getAsString();
+            //Users list their directory roles by name, so the holders of a renamed or removed role are expanded again
+            if (change.has("@removed") || change.has("displayName")) {
+                users.values().stream()
+                        .filter(adUser -> adUser.getRoles().stream().anyMatch(roles -> id.equals(roles.getId())))
+                        .forEach(adUser -> usersToExpand.add(adUser.getId()));
+            }
+            addChangedMembers(change, groups, usersToExpand);
+        }
+
+        usersToExpand.retainAll(users.keySet());
+        groupsToExpand.retainAll(groups.keySet());
+        log.info("Delta sync: {} user changes, {} group changes, {} directory role changes, expanding {} users and {} groups again",
+                userChanges.getChanges().size(), groupChanges.getChanges().size(), roleChanges.getChanges().size(), usersToExpand.size(), groupsToExpand.size());
+
+        List<AdUser> changedUsers = usersToExpand.stream().map(users::get).collect(Collectors.toList());
+        changedUsers.forEach(adUser -> {
+            adUser.getGroup().clear();
+            adUser.getRoles().clear();
+        });
+        directoryCrawler.expandUsers(changedUsers);
+        directoryCrawler.expandGroups(groupsToExpand.stream().map(groups::get).collect(Collectors.toList()));
+
+        DirectoryState updated = new DirectoryState();
+        updated.setUsersDeltaLink(userChanges.getDeltaLink());
+        updated.setGroupsDeltaLink(groupChanges.getDeltaLink());
+        updated.setDirectoryRolesDeltaLink(roleChanges.getDeltaLink());
+        updated.setUsers(sorted(users.values()));
+        updated.setGroups(sorted(groups.values()));
+        return updated;
+    }
+
+    //Members added to or removed from a group or directory role, and everything below them
+    private void addChangedMembers(JsonObject change, Map<String, AdGroup> groups, Set<String> target) {
+        JsonElement memberChanges = change.get("members@delta");
+        if (memberChanges != null && memberChanges.isJsonArray()) {
+            memberChanges.getAsJsonArray().forEach(member -> {
+                String memberId = member.getAsJsonObject().get("id").getAsString();
+                target.add(memberId);
+                addTransitiveMembers(memberId, groups, target);
+            });
+        }
+    }
+
+    private void addTransitiveMembers(String groupId, Map<String, AdGroup> groups, Set<String> target) {
+        AdGroup adGroup = groups.get(groupId);
+        if (adGroup != null) {
+            adGroup.getUsers().forEach(member -> target.add(member.getId()));
+        }
+    }
+
+    //Transitive members include nested groups, so this maps every group to all groups above it
+    private Map<String, Set<String>> getContainingGroups(Map<String, AdGroup> groups) {
+        Map<String, Set<String>> containingGroups = new HashMap<>();
+        groups.values().forEach(adGroup -> adGroup.getUsers().forEach(member ->
+                containingGroups.computeIfAbsent(member.getId(), id -> new HashSet<>()).add(adGroup.getId())));
+        return containingGroups;
+    }
+
+    //A delta change carries the properties that changed, an explicit null clears the property
+    private void mergeUser(AdUser adUser, JsonObject change) {
+        mergeBaseData(adUser, change);
+        if (change.has("mail")) {
+            adUser.setMail(getString(change, "mail"));
+        }
+        if (change.has("userType")) {
+            adUser.setUserType(getString(change, "userType"));
+        }
+    }
+
+    private void mergeGroup(AdGroup adGroup, JsonObject change) {
+        mergeBaseData(adGroup, change);
+        if (change.has("groupTypes")) {
+            List<String> groupTypes = new ArrayList<>();
+            JsonElement changedTypes = change.get("groupTypes");
+            if (changedTypes.isJsonArray()) {
+                changedTypes.getAsJsonArray().forEach(groupType -> groupTypes.add(groupType.getAsString()));
+            }
+            adGroup.setGroupTypes(groupTypes);
+        }
+    }
+
+    private void mergeBaseData(BaseData baseData, JsonObject change) {
+        if (change.has("displayName")) {
+            baseData.setDisplayName(getString(change, "displayName"));
+        }
+        if (change.has("description")) {
+            baseData.setDescription(getString(change, "description"));
+        }
+    }
+
+    private static String getString(JsonObject jsonObject, String property) {
+        JsonElement element = jsonObject.get(property);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static <T extends BaseData> List<T> sorted(Iterable<T> values) {
+        List<T> list = new ArrayList<>();
+        values.forEach(list::add);
+        list.sort(BY_DISPLAY_NAME);
+        return list;
+    }
+
+    private DirectoryState loadState() {
+        if (!stateFile.isFile()) {
+            log.info("No previous directory state");
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+            DirectoryState state = gson.fromJson(reader, DirectoryState.class);
+            if (state == null || state.getUsersDeltaLink() == null || state.getGroupsDeltaLink() == null
+                    || state.getDirectoryRolesDeltaLink() == null) {
+                return null;
+            }
+            log.info("Loaded directory state with {} users and {} groups", state.getUsers().size(), state.getGroups().size());
+            return state;
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to read directory state, ignoring it", e);
+            return null;
+        }
+    }
+
+    private void saveState(DirectoryState state) {
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(state, writer);
+        } catch (IOException e) {
+            log.error("Unable to store directory state", e);
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Unable to store directory state", e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes transitive group and directory role memberships locally from direct memberships.
+ * Nested groups are resolved through their strongly connected components, so cycles are handled and every
+ * group is expanded only once no matter how many groups contain it. The resulting member, group and role
+ * objects are shared between all principals that reference them.
+ */
+public class MembershipClosure {
+    private final Map<String, AdGroup> groups = new LinkedHashMap<>();
+    private final Map<String, Roles> roles = new LinkedHashMap<>();
+    private final Map<String, List<String>> directMembers = new HashMap<>();
+    private final Map<String, User> members = new HashMap<>();
+
+    private final Map<String, List<User>> transitiveMembers = new HashMap<>();
+    private final Map<String, List<Group>> groupsByMember = new HashMap<>();
+    private final Map<String, List<Roles>> rolesByMember = new HashMap<>();
+
+    public void addGroup(AdGroup adGroup) {
+        groups.put(adGroup.getId(), adGroup);
+    }
+
+    public void addDirectoryRole(Roles directoryRole) {
+        roles.put(directoryRole.getId(), directoryRole);
+    }
+
+    /**
+     * @param containerId id of the group or directory role the members belong to directly
+     */
+    public void addDirectMembers(String containerId, List<User> memberList) {
+        List<String> memberIds = directMembers.computeIfAbsent(containerId, id -> new ArrayList<>());
+        for (User member : memberList) {
+            members.putIfAbsent(member.getId(), member);
+            memberIds.add(member.getId());
+        }
+    }
+
+    public List<AdGroup> getGroups() {
+        return new ArrayList<>(groups.values());
+    }
+
+    public void compute() {
+        Map<String, Set<String>> closureByGroup = new HashMap<>();
+        for (List<String> component : stronglyConnectedGroups()) {
+            //Components come out with everything they contain already resolved
+            Set<String> closure = new LinkedHashSet<>();
+            for (String groupId : component) {
+                for (String memberId : directMembers.getOrDefault(groupId, Collections.emptyList())) {
+                    closure.add(memberId);
+                    Set<String> nested = closureByGroup.get(memberId);
+                    if (nested != null) {
+                        closure.addAll(nested);
+                    }
+                }
+            }
+            component.forEach(groupId -> closureByGroup.put(groupId, closure));
+        }
+
+        Map<String, Group> groupViews = new HashMap<>();
+        for (AdGroup adGroup : groups.values()) {
+            Set<String> closure = closureByGroup.getOrDefault(adGroup.getId(), Collections.emptySet());
+            List<User> memberList = new ArrayList<>(closure.size());
+            Group groupView = groupViews.computeIfAbsent(adGroup.getId(), id -> toGroup(adGroup));
+            for (String memberId : closure) {
+                if (memberId.equals(adGroup.getId())) {
+                    continue;
+                }
+                memberList.add(members.get(memberId));
+                groupsByMember.computeIfAbsent(memberId, id -> new ArrayList<>()).add(groupView);
+            }
+            transitiveMembers.put(adGroup.getId(), Collections.unmodifiableList(memberList));
+        }
+
+        for (Roles directoryRole : roles.values()) {
+            Set<String> holders = new LinkedHashSet<>();
+            for (String memberId : directMembers.getOrDefault(directoryRole.getId(), Collections.emptyList())) {
+                holders.add(memberId);
+                holders.addAll(closureByGroup.getOrDefault(memberId, Collections.emptySet()));
+            }
+            holders.forEach(holderId -> rolesByMember.computeIfAbsent(holderId, id -> new ArrayList<>()).add(directoryRole));
+        }
+    }
+
+    public List<AdUser> populateUsers(List<AdUser> adUsers) {
+        for (AdUser adUser : adUsers) {
+            adUser.getGroup().addAll(groupsByMember.getOrDefault(adUser.getId(), Collections.emptyList()));
+            adUser.getRoles().addAll(rolesByMember.getOrDefault(adUser.getId(), Collections.emptyList()));
+        }
+        return adUsers;
+    }
+
+    public List<AdGroup> populateGroups(List<AdGroup> adGroups) {
+        adGroups.forEach(adGroup -> adGroup.setUsers(transitiveMembers.getOrDefault(adGroup.getId(), Collections.emptyList())));
+        return adGroups;
+    }
+
+    private static Group toGroup(AdGroup adGroup) {
+        Group group = new Group();
+        group.setId(adGroup.getId());
+        group.setDisplayName(adGroup.getDisplayName());
+        group.setDescription(adGroup.getDescription());
+        group.setOdata_type(adGroup.getOdata_type());
+        return group;
+    }
+
+    /**
+     * Iterative Tarjan over the group nesting graph, so deep nesting cannot overflow the stack.
+     * Components are returned in reverse topological order, i.e. nested groups before the groups containing them.
+     */
+    private List<List<String>> stronglyConnectedGroups() {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        List<List<String>> components = new ArrayList<>();
+
+        for (String root : groups.keySet()) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            Deque<Frame> work = new ArrayDeque<>();
+            work.push(visit(root, index, lowLink, stack, onStack));
+            while (!work.isEmpty()) {
+                Frame frame = work.peek();
+                if (frame.children.hasNext()) {
+                    String child = frame.children.next();
+                    if (!index.containsKey(child)) {
+                        work.push(visit(child, index, lowLink, stack, onStack));
+                    } else if (onStack.contains(child)) {
+                        lowLink.put(frame.groupId, Math.min(lowLink.get(frame.groupId), index.get(child)));
+                    }
+                    continue;
+                }
+                work.pop();
+                if (!work.isEmpty()) {
+                    String parent = work.peek().groupId;
+                    lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(frame.groupId)));
+                }
+                if (lowLink.get(frame.groupId).equals(index.get(frame.groupId))) {
+                    List<String> component = new ArrayList<>();
+                    String groupId;
+                    do {
+                        groupId = stack.pop();
+                        onStack.remove(groupId);
+                        component.add(groupId);
+                    } while (!groupId.equals(frame.groupId));
+                    components.add(component);
+                }
+            }
+        }
+        return components;
+    }
+
+    private Frame visit(String groupId, Map<String, Integer> index, Map<String, Integer> lowLink, Deque<String> stack, Set<String> onStack) {
+        int next = index.size();
+        index.put(groupId, next);
+        lowLink.put(groupId, next);
+        stack.push(groupId);
+        onStack.add(groupId);
+        List<String> childGroups = new ArrayList<>();
+        for (String memberId : directMembers.getOrDefault(groupId, Collections.emptyList())) {
+            if (groups.containsKey(memberId)) {
+                childGroups.add(memberId);
+            }
+        }
+        return new Frame(groupId, childGroups.iterator());
+    }
+
+    private static class Frame {
+        private final String groupId;
+        private final Iterator<String> children;
+
+        Frame(String groupId, Iterator<String> children) {
+            this.groupId = groupId;
+            this.children = children;
+        }
+    }
+}
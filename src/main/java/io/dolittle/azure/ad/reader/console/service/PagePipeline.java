@@ -0,0 +1,97 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Hands pages of crawled items from the fetching thread to a dedicated writer thread.
+ * Pages are written in the order they were submitted, and the bounded queue blocks the producer
+ * once queueDepth pages are waiting, so memory is bounded by page size times queue depth.
+ */
+@Slf4j
+public class PagePipeline<T> implements AutoCloseable {
+    private final CompletableFuture<List<T>> endOfPages = CompletableFuture.completedFuture(Collections.emptyList());
+    private final BlockingQueue<CompletableFuture<List<T>>> queue;
+    private final Consumer<T> writer;
+    private final Thread writerThread;
+    private volatile Throwable failure;
+    private int written;
+
+    public PagePipeline(String name, int queueDepth, Consumer<T> writer) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+        this.writer = writer;
+        this.writerThread = new Thread(this::drain, name + "-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void submit(CompletableFuture<List<T>> page) {
+        throwIfFailed();
+        put(page);
+    }
+
+    @Override
+    public void close() {
+        put(endOfPages);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the writer to finish", e);
+        }
+        throwIfFailed();
+        log.info("{} wrote {} items", writerThread.getName(), written);
+    }
+
+    private void drain() {
+        while (true) {
+            CompletableFuture<List<T>> page;
+            try {
+                page = queue.take();
+            } catch (InterruptedException e) {
+                failure = e;
+                return;
+            }
+            if (page == endOfPages) {
+                return;
+            }
+            if (failure != null) {
+                //Keep taking pages so the producer is never blocked on a writer that has given up
+                continue;
+            }
+            try {
+                for (T item : page.join()) {
+                    writer.accept(item);
+                    written++;
+                }
+            } catch (Throwable t) {
+                log.error("Pipeline {} failed", writerThread.getName(), t);
+                failure = t;
+            }
+        }
+    }
+
+    private void put(CompletableFuture<List<T>> page) {
+        try {
+            queue.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the writer", e);
+        }
+    }
+
+    private void throwIfFailed() {
+        if (failure != null) {
+            throw new IllegalStateException("Writer " + writerThread.getName() + " failed", failure);
+        }
+    }
+}
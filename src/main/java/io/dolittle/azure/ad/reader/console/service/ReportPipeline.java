@@ -0,0 +1,131 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.report.ReportSink;
+import io.dolittle.azure.ad.reader.console.snapshot.SnapshotWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Writes the report while the directory is being crawled.
+ * Each page of users or groups is enriched with memberships and role assignments and then written
+ * straight to the report sinks, so neither the full user list nor the full group list is kept in memory.
+ */
+@Service
+@Slf4j
+public class ReportPipeline {
+    private final DirectoryCrawler directoryCrawler;
+    private final RoleAssignmentService roleAssignmentService;
+    private final ReportSinkFactory reportSinkFactory;
+    private final SnapshotService snapshotService;
+    private final CrawlMetrics crawlMetrics;
+    private final int queueDepth;
+
+    @Autowired
+    public ReportPipeline(DirectoryCrawler directoryCrawler, RoleAssignmentService roleAssignmentService,
+                          ReportSinkFactory reportSinkFactory, SnapshotService snapshotService, CrawlMetrics crawlMetrics,
+                          @Value("${pipeline.queue-depth:4}") int queueDepth) {
+        this.directoryCrawler = directoryCrawler;
+        this.roleAssignmentService = roleAssignmentService;
+        this.reportSinkFactory = reportSinkFactory;
+        this.snapshotService = snapshotService;
+        this.crawlMetrics = crawlMetrics;
+        this.queueDepth = queueDepth;
+    }
+
+    public void run(String fileName) {
+        RoleAssignmentIndex roleAssignmentIndex = roleAssignmentService.getRoleAssignmentIndex();
+
+        try (SnapshotWriter snapshotWriter = snapshotService.isEnabled() ? snapshotService.openWriter() : null;
+             ReportSink reportSink = reportSinkFactory.open(fileName)) {
+            if (snapshotWriter != null) {
+                snapshotWriter.writeRoleAssignments(roleAssignmentIndex.getAll());
+            }
+            writeReport(reportSink, roleAssignmentIndex, snapshotWriter);
+            reportSink.complete();
+            if (snapshotWriter != null) {
+                snapshotWriter.complete();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write report", e);
+        }
+    }
+
+    private void writeReport(ReportSink reportSink, RoleAssignmentIndex roleAssignmentIndex, SnapshotWriter snapshotWriter) {
+        UserRowWriter userRowWriter = new UserRowWriter(reportSink, snapshotWriter);
+        GroupRowWriter groupRowWriter = new GroupRowWriter(reportSink, snapshotWriter);
+
+        try (PagePipeline<AdUser> users = new PagePipeline<>("users", queueDepth, userRowWriter)) {
+            directoryCrawler.crawlUsers(page -> users.submit(page.thenApply(adUsers -> {
+                adUsers.forEach(adUser -> roleAssignmentService.populateRoleAssignments(adUser, roleAssignmentIndex));
+                return adUsers;
+            })));
+        }
+
+        try (PagePipeline<AdGroup> groups = new PagePipeline<>("groups", queueDepth, groupRowWriter)) {
+            directoryCrawler.crawlGroups(page -> groups.submit(page.thenApply(adGroups -> {
+                adGroups.forEach(adGroup -> roleAssignmentService.populateRoleAssignments(adGroup, roleAssignmentIndex));
+                return adGroups;
+            })));
+        }
+    }
+
+    private class UserRowWriter implements Consumer<AdUser> {
+        private final ReportSink reportSink;
+        private final SnapshotWriter snapshotWriter;
+
+        UserRowWriter(ReportSink reportSink, SnapshotWriter snapshotWriter) {
+            this.reportSink = reportSink;
+            this.snapshotWriter = snapshotWriter;
+        }
+
+        @Override
+        public void accept(AdUser adUser) {
+            long start = System.nanoTime();
+            try {
+                reportSink.writeUser(adUser);
+                if (snapshotWriter != null) {
+                    snapshotWriter.writeUser(adUser);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write user " + adUser.getId(), e);
+            }
+            crawlMetrics.recordRow("user", System.nanoTime() - start);
+        }
+    }
+
+    private class GroupRowWriter implements Consumer<AdGroup> {
+        private final ReportSink reportSink;
+        private final SnapshotWriter snapshotWriter;
+
+        GroupRowWriter(ReportSink reportSink, SnapshotWriter snapshotWriter) {
+            this.reportSink = reportSink;
+            this.snapshotWriter = snapshotWriter;
+        }
+
+        @Override
+        public void accept(AdGroup adGroup) {
+            long start = System.nanoTime();
+            try {
+                reportSink.writeGroup(adGroup);
+                if (snapshotWriter != null) {
+                    snapshotWriter.writeGroup(adGroup);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write group " + adGroup.getId(), e);
+            }
+            crawlMetrics.recordRow("group", System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One sheet of the report as laid out by {@link WorkbookService}. Once the row limit is reached the rows continue on
+ * numbered continuation sheets, "Users (2)", "Users (3)" and so on, each starting with the same header.
+ */
+@Slf4j
+public class ReportSheet {
+    private final Workbook workbook;
+    private final String name;
+    private final String[] header;
+    private final int lastRowIndex;
+    private final List<Sheet> sheets = new ArrayList<>();
+    private Sheet sheet;
+    private int rowIndex;
+
+    ReportSheet(Workbook workbook, String name, int rowLimit, String... header) {
+        this.workbook = workbook;
+        this.name = name;
+        this.header = header;
+        this.lastRowIndex = rowLimit - 1;
+        addSheet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Sheet> getSheets() {
+        return Collections.unmodifiableList(sheets);
+    }
+
+    /**
+     * Moves to a continuation sheet if the next rows do not fit on the current one, so a user or group is only split
+     * across sheets when it is larger than a whole sheet.
+     */
+    void reserve(int rows) {
+        if (rowIndex > 0 && rowIndex + rows > lastRowIndex) {
+            addSheet();
+        }
+    }
+
+    Row nextRow() {
+        if (rowIndex >= lastRowIndex) {
+            addSheet();
+        }
+        return sheet.createRow(++rowIndex);
+    }
+
+    void skipRow() {
+        rowIndex++;
+    }
+
+    private void addSheet() {
+        String sheetName = sheets.isEmpty() ? name : name + " (" + (sheets.size() + 1) + ")";
+        //The sheets of one workbook may be rendered on different threads, only creating a sheet touches the workbook
+        synchronized (workbook) {
+            sheet = workbook.createSheet(sheetName);
+        }
+        Row row = sheet.createRow(0);
+        for (int i = 0; i < header.length; i++) {
+            row.createCell(i).setCellValue(header[i]);
+        }
+        rowIndex = 0;
+        sheets.add(sheet);
+        if (sheets.size() > 1) {
+            log.info("Sheet {} reached {} rows, continuing on {}", name, lastRowIndex + 1, sheetName);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.report.CompositeReportSink;
+import io.dolittle.azure.ad.reader.console.report.CsvReportSink;
+import io.dolittle.azure.ad.reader.console.report.JsonLinesReportSink;
+import io.dolittle.azure.ad.reader.console.report.ReportSink;
+import io.dolittle.azure.ad.reader.console.report.WorkbookReportSink;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Opens the report outputs selected by report.sinks, any combination of xlsx, csv and jsonl.
+ */
+@Service
+@Slf4j
+public class ReportSinkFactory {
+    public static final String XLSX = "xlsx";
+    public static final String CSV = "csv";
+    public static final String JSONL = "jsonl";
+
+    private final WorkbookService workbookService;
+    private final CrawlMetrics crawlMetrics;
+    private final Path outputPath;
+    private final Set<String> sinks = new LinkedHashSet<>();
+    private final boolean gzip;
+
+    @Autowired
+    public ReportSinkFactory(WorkbookService workbookService, CrawlMetrics crawlMetrics,
+                             @Value("${file.output.path}") String outputPath,
+                             @Value("${report.sinks:xlsx}") String sinks,
+                             @Value("${report.gzip:false}") boolean gzip) {
+        this.workbookService = workbookService;
+        this.crawlMetrics = crawlMetrics;
+        this.outputPath = Paths.get(outputPath);
+        this.gzip = gzip;
+        for (String sink : sinks.split(",")) {
+            String name = sink.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!XLSX.equals(name) && !CSV.equals(name) && !JSONL.equals(name)) {
+                throw new IllegalArgumentException("Unknown report sink '" + name + "', expected xlsx, csv or jsonl");
+            }
+            this.sinks.add(name);
+        }
+        if (this.sinks.isEmpty()) {
+            throw new IllegalArgumentException("report.sinks is empty");
+        }
+        log.info("Report sinks: {}{}", this.sinks, gzip ? ", gzip" : "");
+    }
+
+    public ReportSink open(String reportName) throws IOException {
+        List<ReportSink> opened = new ArrayList<>();
+        try {
+            for (String sink : sinks) {
+                opened.add(open(sink, reportName));
+            }
+        } catch (IOException | RuntimeException e) {
+            //Closed without being completed, the sinks discard their output
+            for (ReportSink reportSink : opened) {
+                try {
+                    reportSink.close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            throw e;
+        }
+        return opened.size() == 1 ? opened.get(0) : new CompositeReportSink(opened);
+    }
+
+    private ReportSink open(String sink, String reportName) throws IOException {
+        switch (sink) {
+            case CSV:
+                return new CsvReportSink(outputPath, reportName, gzip, crawlMetrics);
+            case JSONL:
+                return new JsonLinesReportSink(outputPath, reportName, gzip, crawlMetrics);
+            default:
+                return new WorkbookReportSink(workbookService, reportName);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.client.AzureMgtClient;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads the Azure role assignments and joins them onto users and groups.
+ */
+@Service
+@Slf4j
+public class RoleAssignmentService {
+    private static final String SUBSCRIPTION_SCOPE = "/subscriptions/";
+    private final AzureMgtClient azureMgtClient;
+    private final CrawlMetrics crawlMetrics;
+
+    @Autowired
+    public RoleAssignmentService(AzureMgtClient azureMgtClient, CrawlMetrics crawlMetrics) {
+        this.azureMgtClient = azureMgtClient;
+        this.crawlMetrics = crawlMetrics;
+    }
+
+    /**
+     * Fetches the assignments of all scanned subscriptions concurrently and merges them into one index.
+     * Assignments made above subscription level are listed by every subscription below them and only kept once.
+     */
+    public RoleAssignmentIndex getRoleAssignmentIndex() {
+        return crawlMetrics.time(CrawlMetrics.PHASE_ROLE_ASSIGNMENTS, this::loadRoleAssignmentIndex);
+    }
+
+    private RoleAssignmentIndex loadRoleAssignmentIndex() {
+        crawlMetrics.time(CrawlMetrics.PHASE_ROLE_DEFINITIONS, azureMgtClient::preloadRoleDefinitions);
+
+        Map<String, List<RoleAssignment>> bySubscription = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String subscriptionId : azureMgtClient.getSubscriptionIds()) {
+            List<RoleAssignment> roleAssignments = new ArrayList<>();
+            bySubscription.put(subscriptionId, roleAssignments);
+            //Each page is completed while the next one is being fetched
+            futures.add(azureMgtClient.forEachRoleAssignmentPage(subscriptionId, page -> {
+                crawlMetrics.countObjects("role-assignment", page.size());
+                populateRoleDefinitions(page);
+                roleAssignments.addAll(page);
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        Map<String, RoleAssignment> allRoleAssignments = new LinkedHashMap<>();
+        Map<String, Set<String>> inheritedScopes = new HashMap<>();
+        bySubscription.forEach((subscriptionId, roleAssignments) -> roleAssignments.forEach(roleAssignment -> {
+            allRoleAssignments.putIfAbsent(RoleAssignmentIndex.normalizeId(roleAssignment.getId()), roleAssignment);
+            addInheritedScope(inheritedScopes, subscriptionId, roleAssignment);
+        }));
+
+        log.info("Got {} roleAssignments: ", allRoleAssignments.size());
+        return new RoleAssignmentIndex(allRoleAssignments.values(), inheritedScopes);
+    }
+
+    //An assignment listed by a subscription but made outside of it was made at a management group above the subscription
+    private static void addInheritedScope(Map<String, Set<String>> inheritedScopes, String subscriptionId, RoleAssignment roleAssignment) {
+        if (roleAssignment.getProperties() == null || roleAssignment.getProperties().getScope() == null) {
+            return;
+        }
+        String subscriptionScope = RoleAssignmentIndex.normalizeScope(SUBSCRIPTION_SCOPE + subscriptionId);
+        String scope = RoleAssignmentIndex.normalizeScope(roleAssignment.getProperties().getScope());
+        if (!scope.equals("/") && !scope.equals(subscriptionScope) && !scope.startsWith(subscriptionScope + "/")) {
+            inheritedScopes.computeIfAbsent(subscriptionScope, key -> new HashSet<>()).add(scope);
+        }
+    }
+
+    public void populateRoleAssignments(AdGroup adGroup, RoleAssignmentIndex roleAssignmentIndex) {
+        adGroup.setRoleAssignments(roleAssignmentIndex.getByPrincipalId(adGroup.getId()));
+    }
+
+    public void populateRoleAssignments(AdUser adUser, RoleAssignmentIndex roleAssignmentIndex) {
+        List<RoleAssignment> raByPrincipalIdList = new ArrayList<>(roleAssignmentIndex.getByPrincipalId(adUser.getId()));
+
+        List<Group> groupList = adUser.getGroup();
+        for (Group group : groupList) {
+            raByPrincipalIdList.addAll(roleAssignmentIndex.getByPrincipalId(group.getId()));
+        }
+        adUser.setRoleAssignments(raByPrincipalIdList);
+    }
+
+    //Set while the page is fetched, before the assignments are shared. A page mostly repeats a few roles, each is resolved once
+    private void populateRoleDefinitions(List<RoleAssignment> roleAssignmentList) {
+        Map<String, RoleDefinition> roleDefinitions = new HashMap<>();
+        for (RoleAssignment ra : roleAssignmentList) {
+            String roleDefinitionId = ra.getProperties() == null ? null : ra.getProperties().getRoleDefinitionId();
+            if (roleDefinitionId != null) {
+                ra.setRoleDefinition(roleDefinitions.computeIfAbsent(roleDefinitionId, azureMgtClient::getRoleDefinition));
+            }
+        }
+    }
+}
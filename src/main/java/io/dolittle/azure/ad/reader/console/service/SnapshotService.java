@@ -0,0 +1,67 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.snapshot.SnapshotReader;
+import io.dolittle.azure.ad.reader.console.snapshot.SnapshotWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Stores the crawl result as a binary snapshot so reports can be rendered again without crawling Graph and ARM.
+ */
+@Service
+@Slf4j
+public class SnapshotService {
+    private final boolean enabled;
+    private final Path snapshotFile;
+    private final int stringCacheSize;
+
+    @Autowired
+    public SnapshotService(@Value("${snapshot.enabled:false}") boolean enabled,
+                           @Value("${snapshot.file:${file.output.path}directory.snapshot}") String snapshotFile,
+                           @Value("${snapshot.string-cache-size:65536}") int stringCacheSize) {
+        this.enabled = enabled;
+        this.snapshotFile = Paths.get(snapshotFile);
+        this.stringCacheSize = stringCacheSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public SnapshotWriter openWriter() throws IOException {
+        log.info("Writing snapshot to {}", snapshotFile);
+        return new SnapshotWriter(snapshotFile, stringCacheSize);
+    }
+
+    public SnapshotReader openReader() throws IOException {
+        log.info("Reading snapshot from {}", snapshotFile);
+        return new SnapshotReader(snapshotFile);
+    }
+
+    public void save(Iterable<AdUser> adUsers, Iterable<AdGroup> adGroups, RoleAssignmentIndex roleAssignmentIndex) {
+        try (SnapshotWriter writer = openWriter()) {
+            writer.writeRoleAssignments(roleAssignmentIndex.getAll());
+            for (AdUser adUser : adUsers) {
+                writer.writeUser(adUser);
+            }
+            for (AdGroup adGroup : adGroups) {
+                writer.writeGroup(adGroup);
+            }
+            writer.complete();
+        } catch (IOException e) {
+            log.error("Unable to save snapshot", e);
+        }
+    }
+}
@@ -9,10 +9,13 @@ import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
 import io.dolittle.azure.ad.reader.console.model.user.Group;
 import io.dolittle.azure.ad.reader.console.model.user.Roles;
 import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.util.PrincipalTypeUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -20,7 +23,12 @@ import org.springframework.stereotype.Service;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.function.Function;
 
 @Service
 @Slf4j
@@ -28,225 +36,282 @@ public class WorkbookService {
 
     private final String FILE_PATH;
     private static final String FILE_EXT= ".xlsx";
+    private final boolean streaming;
+    private final int rowWindow;
+    private final boolean compressTempFiles;
+    private final int sheetRowLimit;
+    private final boolean parallelSheets;
+    private final CrawlMetrics crawlMetrics;
 
     @Autowired
-    public WorkbookService(@Value("${file.output.path}") String filePath) {
+    public WorkbookService(CrawlMetrics crawlMetrics,
+                           @Value("${file.output.path}") String filePath,
+                           @Value("${file.output.streaming:true}") boolean streaming,
+                           @Value("${file.output.row-window:100}") int rowWindow,
+                           @Value("${file.output.compress-temp-files:true}") boolean compressTempFiles,
+                           @Value("${file.output.sheet-row-limit:1048576}") int sheetRowLimit,
+                           @Value("${file.output.parallel-sheets:true}") boolean parallelSheets) {
         FILE_PATH = filePath;
+        this.streaming = streaming;
+        this.rowWindow = rowWindow;
+        this.compressTempFiles = compressTempFiles;
+        //A limit above what xlsx allows would fail on the first row past it, a limit below 2 leaves no room after the header
+        this.sheetRowLimit = Math.max(2, Math.min(sheetRowLimit, SpreadsheetVersion.EXCEL2007.getMaxRows()));
+        this.parallelSheets = parallelSheets;
+        this.crawlMetrics = crawlMetrics;
     }
 
-    public XSSFWorkbook createWorkbook() {
-        XSSFWorkbook wb = new XSSFWorkbook();
+    public Workbook createWorkbook() {
+        Workbook wb;
+        if (streaming) {
+            //Only the last rowWindow rows of each sheet are kept on the heap, older rows are flushed to temp files
+            SXSSFWorkbook sxssfWorkbook = new SXSSFWorkbook(rowWindow);
+            sxssfWorkbook.setCompressTempFiles(compressTempFiles);
+            wb = sxssfWorkbook;
+        } else {
+            wb = new XSSFWorkbook();
+        }
         log.info("Workbook created");
         return wb;
     }
 
-    public void populateAdGroupSheet(List<AdGroup> groupList, XSSFWorkbook wb) {
-        XSSFSheet sheet = wb.createSheet("Groups");
-        int rowCounter = 0;
-        int columnCounter = -1;
-        XSSFRow row = sheet.createRow(rowCounter);
-        //Header
-        row.createCell(++columnCounter).setCellValue("ID");
-        row.createCell(++columnCounter).setCellValue("DisplayName");
-        row.createCell(++columnCounter).setCellValue("Description");
-        row.createCell(++columnCounter).setCellValue("GroupTypes");
+    public void populateAdGroupSheet(List<AdGroup> groupList, Workbook wb) {
+        long start = System.nanoTime();
+        ReportSheet sheet = createAdGroupSheet(wb);
 
         for (AdGroup adGroup : groupList) {
-            //Group data
-            rowCounter = populateAdGroupData(adGroup, sheet, rowCounter);
+            appendAdGroup(adGroup, sheet);
+        }
+        crawlMetrics.recordSheet(sheet.getName(), System.nanoTime() - start);
+    }
+
+    public ReportSheet createAdGroupSheet(Workbook wb) {
+        return new ReportSheet(wb, "Groups", sheetRowLimit, "ID", "DisplayName", "Description", "GroupTypes");
+    }
 
-            //Member data
-            rowCounter = populateAdGroupMemberData(adGroup.getUsers(), sheet, rowCounter);
+    public void appendAdGroup(AdGroup adGroup, ReportSheet sheet) {
+        sheet.reserve(1 + sectionRows(adGroup.getUsers()) + sectionRows(adGroup.getRoleAssignments()));
 
-            //Azure Roless data
-            rowCounter = populateAZ_RolesData(adGroup.getRoleAssignments(), sheet, rowCounter);
+        //Group data
+        populateAdGroupData(adGroup, sheet);
 
-            rowCounter++; //Additional row as space
-        }
+        //Member data
+        populateAdGroupMemberData(adGroup.getUsers(), sheet);
+
+        //Azure Roless data
+        populateAZ_RolesData(adGroup.getRoleAssignments(), roleAssignment -> PrincipalTypeUtil.getPrincipalType(adGroup), sheet);
 
+        sheet.skipRow(); //Additional row as space
     }
 
-    private int populateAdGroupData(AdGroup adGroup, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
-        rowCounter++;
+    private void populateAdGroupData(AdGroup adGroup, ReportSheet sheet) {
         int columnCounter = -1;
-        row = sheet.createRow((rowCounter));
+        Row row = sheet.nextRow();
         row.createCell(++columnCounter).setCellValue(adGroup.getId());
         row.createCell(++columnCounter).setCellValue(adGroup.getDisplayName());
         row.createCell(++columnCounter).setCellValue(adGroup.getDescription());
         row.createCell(++columnCounter).setCellValue(adGroup.getGroupTypes().toString());
-
-        return rowCounter;
     }
 
-    private int populateAdGroupMemberData(List<User> userList, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
+    private void populateAdGroupMemberData(List<User> userList, ReportSheet sheet) {
+        Row row;
         if (userList.size() == 0) {
-            return rowCounter;
+            return;
         }
-        rowCounter++;
         int columnCounter = 1;
-        row = sheet.createRow((rowCounter));
+        row = sheet.nextRow();
         row.createCell(columnCounter).setCellValue("MEMBERS:");
 
         for (User user : userList) {
-            rowCounter++;
             columnCounter = 1;
-            row = sheet.createRow((rowCounter));
+            row = sheet.nextRow();
             row.createCell(++columnCounter).setCellValue(user.getDisplayName());
         }
-
-        return rowCounter;
     }
 
-    public void populateAzureRolesSheet(List<AdUser> userList, XSSFWorkbook wb) {
-        XSSFSheet sheet = wb.createSheet("Roles Assignment");
-
-        int rowCounter = 0;
-        int columnCounter = -1;
-        XSSFRow row = sheet.createRow(rowCounter);
-        //Header
-        row.createCell(++columnCounter).setCellValue("ID");
-        row.createCell(++columnCounter).setCellValue("DisplayName");
-        row.createCell(++columnCounter).setCellValue("RoleName");
-        row.createCell(++columnCounter).setCellValue("RoleType");
-        row.createCell(++columnCounter).setCellValue("RoleDescription");
-        row.createCell(++columnCounter).setCellValue("RoleScope");
+    public void populateAzureRolesSheet(List<AdUser> userList, Workbook wb) {
+        long start = System.nanoTime();
+        ReportSheet sheet = createAzureRolesSheet(wb);
 
         for (AdUser adUser : userList) {
-            rowCounter = populateAzureRolesData(adUser, sheet, rowCounter);
+            appendAzureRoles(adUser, sheet);
         }
+        crawlMetrics.recordSheet(sheet.getName(), System.nanoTime() - start);
+    }
+
+    public ReportSheet createAzureRolesSheet(Workbook wb) {
+        return new ReportSheet(wb, "Roles Assignment", sheetRowLimit,
+                "ID", "DisplayName", "RoleName", "RoleType", "RoleDescription", "RoleScope");
+    }
 
+    public void appendAzureRoles(AdUser user, ReportSheet sheet) {
+        sheet.reserve(1 + user.getRoleAssignments().size());
+        populateAzureRolesData(user, sheet);
     }
 
-    private int populateAzureRolesData(AdUser user, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
-        rowCounter++;
+    private void populateAzureRolesData(AdUser user, ReportSheet sheet) {
         int columnCounter = -1;
-        row = sheet.createRow((rowCounter));
+        Row row = sheet.nextRow();
         row.createCell(++columnCounter).setCellValue(user.getId());
         row.createCell(++columnCounter).setCellValue(user.getDisplayName());
         List<RoleAssignment> roleAssignments = user.getRoleAssignments();
-        rowCounter = populateAzureRoleDefinition(roleAssignments, sheet, rowCounter);
-        return rowCounter;
+        populateAzureRoleDefinition(roleAssignments, roleAssignment -> PrincipalTypeUtil.getPrincipalType(user, roleAssignment), sheet);
     }
 
-    public void populateUsersSheet(List<AdUser> userList, XSSFWorkbook wb) {
-        XSSFSheet sheet = wb.createSheet("Users");
-        int rowCounter = 0;
-        int columnCounter = -1;
-        XSSFRow row = sheet.createRow(rowCounter);
-
-        //Header
-        row.createCell(++columnCounter).setCellValue("userID");
-        row.createCell(++columnCounter).setCellValue("DisplayName");
-        row.createCell(++columnCounter).setCellValue("userType");
-        row.createCell(++columnCounter).setCellValue("Email");
+    public void populateUsersSheet(List<AdUser> userList, Workbook wb) {
+        long start = System.nanoTime();
+        ReportSheet sheet = createUsersSheet(wb);
         for (AdUser adUser : userList) {
-            //Userdata
-            rowCounter = populateUserData(adUser, sheet, rowCounter);
+            appendUser(adUser, sheet);
+        }
+        crawlMetrics.recordSheet(sheet.getName(), System.nanoTime() - start);
+    }
 
-            //Group data
-            rowCounter = populateGroupData(adUser.getGroup(), sheet, rowCounter);
+    public ReportSheet createUsersSheet(Workbook wb) {
+        return new ReportSheet(wb, "Users", sheetRowLimit, "userID", "DisplayName", "userType", "Email");
+    }
 
-            //AD Roles data
-            rowCounter = populateADRolesData(adUser.getRoles(), sheet, rowCounter);
+    public void appendUser(AdUser adUser, ReportSheet sheet) {
+        sheet.reserve(1 + sectionRows(adUser.getGroup()) + sectionRows(adUser.getRoles()) + sectionRows(adUser.getRoleAssignments()));
 
-            //Azure Roless data
-            rowCounter = populateAZ_RolesData(adUser.getRoleAssignments(), sheet, rowCounter);
+        //Userdata
+        populateUserData(adUser, sheet);
 
-            rowCounter++; //Additional space after an user
-        }
+        //Group data
+        populateGroupData(adUser.getGroup(), sheet);
+
+        //AD Roles data
+        populateADRolesData(adUser.getRoles(), sheet);
+
+        //Azure Roless data
+        populateAZ_RolesData(adUser.getRoleAssignments(), roleAssignment -> PrincipalTypeUtil.getPrincipalType(adUser, roleAssignment), sheet);
+
+        sheet.skipRow(); //Additional space after an user
     }
 
-    private int populateUserData(AdUser user, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
-        rowCounter++;
+    private void populateUserData(AdUser user, ReportSheet sheet) {
         int columnCounter = -1;
-        row = sheet.createRow((rowCounter));
+        Row row = sheet.nextRow();
         row.createCell(++columnCounter).setCellValue(user.getId());
         row.createCell(++columnCounter).setCellValue(user.getDisplayName());
         row.createCell(++columnCounter).setCellValue(user.getUserType());
         row.createCell(++columnCounter).setCellValue(user.getMail());
-        return rowCounter;
     }
 
-    private int populateGroupData(List<Group> groupList, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
+    private void populateGroupData(List<Group> groupList, ReportSheet sheet) {
+        Row row;
         if (groupList.size() == 0) {
-            return rowCounter;
+            return;
         }
-        rowCounter++;
         int columnCounter = 1;
-        row = sheet.createRow((rowCounter));
+        row = sheet.nextRow();
         row.createCell(columnCounter).setCellValue("GROUPS:");
 
         for (Group group : groupList) {
-            rowCounter++;
             columnCounter = 1;
-            row = sheet.createRow((rowCounter));
+            row = sheet.nextRow();
             row.createCell(++columnCounter).setCellValue(group.getDisplayName());
             row.createCell(++columnCounter).setCellValue(group.getDescription());
         }
-        return rowCounter;
     }
 
-    private int populateADRolesData(List<Roles> rolesList, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
+    private void populateADRolesData(List<Roles> rolesList, ReportSheet sheet) {
+        Row row;
         if (rolesList.size() == 0) {
-            return rowCounter;
+            return;
         }
-        rowCounter++;
         int columnCounter = 1;
-        row = sheet.createRow((rowCounter));
+        row = sheet.nextRow();
         row.createCell(columnCounter).setCellValue("AD ROLES:");
         for (Roles roles : rolesList) {
-            rowCounter++;
             columnCounter = 1;
-            row = sheet.createRow((rowCounter));
+            row = sheet.nextRow();
             row.createCell(++columnCounter).setCellValue(roles.getDisplayName());
         }
-        return rowCounter;
     }
 
-    private int populateAZ_RolesData(List<RoleAssignment> raList, XSSFSheet sheet, int rowCounter) {
-        XSSFRow row;
+    private void populateAZ_RolesData(List<RoleAssignment> raList, Function<RoleAssignment, String> principalType, ReportSheet sheet) {
         if (raList.size() == 0) {
-            return rowCounter;
+            return;
         }
-        rowCounter++;
         int columnCounter = 1;
-        row = sheet.createRow((rowCounter));
+        Row row = sheet.nextRow();
         row.createCell(columnCounter).setCellValue("AZURE ROLES:");
-        rowCounter = populateAzureRoleDefinition(raList, sheet, rowCounter);
-        return rowCounter;
+        populateAzureRoleDefinition(raList, principalType, sheet);
     }
 
-    private int populateAzureRoleDefinition(List<RoleAssignment> raList, XSSFSheet sheet, int rowCounter) {
+    private void populateAzureRoleDefinition(List<RoleAssignment> raList, Function<RoleAssignment, String> principalType, ReportSheet sheet) {
         int columnCounter;
-        XSSFRow row;
+        Row row;
         for (RoleAssignment ra : raList) {
-            rowCounter++;
             columnCounter = 1;
-            row = sheet.createRow((rowCounter));
+            row = sheet.nextRow();
             row.createCell(++columnCounter).setCellValue(ra.getRoleDefinition().getProperties().getRoleName());
             row.createCell(++columnCounter).setCellValue(ra.getRoleDefinition().getProperties().getType());
-            row.createCell(++columnCounter).setCellValue(ra.getPrincipalType());
+            row.createCell(++columnCounter).setCellValue(principalType.apply(ra));
             row.createCell(++columnCounter).setCellValue(ra.getProperties().getScope());
             row.createCell(++columnCounter).setCellValue(ra.getRoleDefinition().getProperties().getDescription());
         }
-        return rowCounter;
     }
 
-    public void saveWorkbook(XSSFWorkbook workbook, String fileName){
-        FileOutputStream xlsxFile;
+    //A titled section, the title row followed by one row per item
+    private static int sectionRows(List<?> items) {
+        return items.isEmpty() ? 0 : items.size() + 1;
+    }
+
+    /**
+     * Whether the sheets of this workbook can be rendered on separate threads. Streaming sheets only share the
+     * workbook when a sheet is created, an in-memory workbook shares its strings table between all sheets.
+     */
+    public boolean canRenderInParallel(Workbook workbook) {
+        return parallelSheets && workbook instanceof SXSSFWorkbook;
+    }
+
+    /**
+     * Places the continuation sheets right after the sheet they continue, in the given order.
+     */
+    public void orderSheets(Workbook workbook, ReportSheet... sheets) {
+        int position = 0;
+        for (ReportSheet reportSheet : sheets) {
+            for (Sheet sheet : reportSheet.getSheets()) {
+                workbook.setSheetOrder(sheet.getSheetName(), position++);
+            }
+        }
+        workbook.setActiveSheet(0);
+    }
+
+    public void saveWorkbook(Workbook workbook, String fileName){
+        workbook.forEach(sheet -> crawlMetrics.countRows(sheet.getSheetName(), sheet.getLastRowNum() + 1));
+        long start = System.nanoTime();
+        //Written next to the report and moved over it when complete, a failed save leaves the previous report in place
+        Path xlsxPath = Paths.get(FILE_PATH + fileName + FILE_EXT);
+        Path tempPath = Paths.get(xlsxPath + ".tmp");
         try {
-            xlsxFile = new FileOutputStream(FILE_PATH + fileName + FILE_EXT);
-            workbook.write(xlsxFile);
-            xlsxFile.flush();
-            xlsxFile.close();
+            try (FileOutputStream xlsxFile = new FileOutputStream(tempPath.toFile())) {
+                workbook.write(xlsxFile);
+            }
+            Files.move(tempPath, xlsxPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             log.error("Unable to save Workbook", e);
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException deleteFailure) {
+                log.warn("Unable to delete {}", tempPath, deleteFailure);
+            }
+        } finally {
+            closeWorkbook(workbook);
+            crawlMetrics.recordPhase(CrawlMetrics.PHASE_SAVE_WORKBOOK, System.nanoTime() - start);
+        }
+    }
+
+    public void closeWorkbook(Workbook workbook) {
+        if (workbook instanceof SXSSFWorkbook && !((SXSSFWorkbook) workbook).dispose()) {
+            log.warn("Unable to delete all temporary workbook files");
+        }
+        try {
+            workbook.close();
+        } catch (IOException e) {
+            log.error("Unable to close Workbook", e);
         }
     }
 }
@@ -0,0 +1,32 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.snapshot;
+
+/**
+ * Layout of the binary snapshot file.
+ * <pre>
+ * header:  magic int, version int, then one index offset (long) per section in the order of {@link Section}
+ * records: user, group, assignment, definition and string records in the order they were written
+ * index:   per section a record count (int) followed by one record offset (long) per record
+ * </pre>
+ * Strings are written to the string section when first seen and referenced by their number, -1 meaning null.
+ * The writer only remembers recently used strings, so the same string may be stored more than once.
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x41445253; //ADRS
+    static final int VERSION = 2;
+    static final int NULL_REF = -1;
+    static final int HEADER_SIZE = 8 + Section.values().length * 8;
+
+    enum Section {
+        STRINGS,
+        ROLE_DEFINITIONS,
+        ROLE_ASSIGNMENTS,
+        USERS,
+        GROUPS
+    }
+
+    private SnapshotFormat() {
+    }
+}
@@ -0,0 +1,317 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.snapshot;
+
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinitionProperty;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Reads a snapshot file through a memory mapping, split into segments of at most 1GB so files over 2GB can be read.
+ * Records are only decoded when they are accessed; strings, role assignments and role definitions are
+ * decoded once and then shared, so principals read from the snapshot hold the same instances just like after a crawl.
+ * Not thread safe.
+ */
+public class SnapshotReader implements AutoCloseable {
+    private static final int SEGMENT_SHIFT = 30;
+
+    private final FileChannel channel;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final MappedByteBuffer[] segments;
+    private final long[] indexOffsets = new long[SnapshotFormat.Section.values().length];
+    private final int[] counts = new int[SnapshotFormat.Section.values().length];
+    private final String[] strings;
+    private final RoleAssignment[] roleAssignments;
+    private final RoleDefinition[] roleDefinitions;
+
+    public SnapshotReader(Path path) throws IOException {
+        this(path, SEGMENT_SHIFT);
+    }
+
+    SnapshotReader(Path path, int segmentShift) throws IOException {
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + segmentMask) >> segmentShift)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentMask + 1, size - start));
+            }
+            if (size < SnapshotFormat.HEADER_SIZE || getInt(0) != SnapshotFormat.MAGIC || getInt(4) != SnapshotFormat.VERSION) {
+                throw new IOException("Not a snapshot file or unsupported version: " + path);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        for (SnapshotFormat.Section section : SnapshotFormat.Section.values()) {
+            indexOffsets[section.ordinal()] = getLong(8 + section.ordinal() * 8);
+            counts[section.ordinal()] = getInt(indexOffsets[section.ordinal()]);
+        }
+        strings = new String[count(SnapshotFormat.Section.STRINGS)];
+        roleAssignments = new RoleAssignment[count(SnapshotFormat.Section.ROLE_ASSIGNMENTS)];
+        roleDefinitions = new RoleDefinition[count(SnapshotFormat.Section.ROLE_DEFINITIONS)];
+    }
+
+    public int getUserCount() {
+        return count(SnapshotFormat.Section.USERS);
+    }
+
+    public int getGroupCount() {
+        return count(SnapshotFormat.Section.GROUPS);
+    }
+
+    /**
+     * @return a list view that decodes each user when it is accessed
+     */
+    public List<AdUser> getUsers() {
+        return new LazyList<>(getUserCount(), this::getUser);
+    }
+
+    public List<AdGroup> getGroups() {
+        return new LazyList<>(getGroupCount(), this::getGroup);
+    }
+
+    public List<RoleAssignment> getRoleAssignments() {
+        return new LazyList<>(count(SnapshotFormat.Section.ROLE_ASSIGNMENTS), this::getRoleAssignment);
+    }
+
+    public List<RoleDefinition> getRoleDefinitions() {
+        return new LazyList<>(count(SnapshotFormat.Section.ROLE_DEFINITIONS), this::getRoleDefinition);
+    }
+
+    public AdUser getUser(int index) {
+        Cursor cursor = record(SnapshotFormat.Section.USERS, index);
+        AdUser adUser = readBaseData(cursor, AdUser::new);
+        adUser.setMail(cursor.readString());
+        adUser.setUserType(cursor.readString());
+        int groupCount = cursor.readInt();
+        for (int i = 0; i < groupCount; i++) {
+            adUser.getGroup().add(readBaseData(cursor, Group::new));
+        }
+        int rolesCount = cursor.readInt();
+        for (int i = 0; i < rolesCount; i++) {
+            adUser.getRoles().add(readBaseData(cursor, Roles::new));
+        }
+        adUser.setRoleAssignments(readRoleAssignments(cursor));
+        return adUser;
+    }
+
+    public AdGroup getGroup(int index) {
+        Cursor cursor = record(SnapshotFormat.Section.GROUPS, index);
+        AdGroup adGroup = readBaseData(cursor, AdGroup::new);
+        int groupTypeCount = cursor.readInt();
+        for (int i = 0; i < groupTypeCount; i++) {
+            adGroup.getGroupTypes().add(cursor.readString());
+        }
+        int memberCount = cursor.readInt();
+        for (int i = 0; i < memberCount; i++) {
+            adGroup.getUsers().add(readBaseData(cursor, User::new));
+        }
+        adGroup.setRoleAssignments(readRoleAssignments(cursor));
+        return adGroup;
+    }
+
+    public RoleAssignment getRoleAssignment(int index) {
+        RoleAssignment roleAssignment = roleAssignments[index];
+        if (roleAssignment != null) {
+            return roleAssignment;
+        }
+        Cursor cursor = record(SnapshotFormat.Section.ROLE_ASSIGNMENTS, index);
+        boolean hasProperties = cursor.readBoolean();
+        roleAssignment = new RoleAssignment();
+        roleAssignment.setId(cursor.readString());
+        roleAssignment.setType(cursor.readString());
+        roleAssignment.setName(cursor.readString());
+        RoleAssignmentProperty properties = new RoleAssignmentProperty();
+        properties.setRoleDefinitionId(cursor.readString());
+        properties.setPrincipalId(cursor.readString());
+        properties.setScope(cursor.readString());
+        properties.setCreatedOn(parseDate(cursor.readString()));
+        properties.setUpdatedOn(parseDate(cursor.readString()));
+        properties.setCreatedBy(cursor.readString());
+        properties.setUpdatedBy(cursor.readString());
+        roleAssignment.setProperties(hasProperties ? properties : null);
+        int definitionRef = cursor.readInt();
+        roleAssignment.setRoleDefinition(definitionRef == SnapshotFormat.NULL_REF ? null : getRoleDefinition(definitionRef));
+        roleAssignments[index] = roleAssignment;
+        return roleAssignment;
+    }
+
+    public RoleDefinition getRoleDefinition(int index) {
+        RoleDefinition roleDefinition = roleDefinitions[index];
+        if (roleDefinition != null) {
+            return roleDefinition;
+        }
+        Cursor cursor = record(SnapshotFormat.Section.ROLE_DEFINITIONS, index);
+        boolean hasProperties = cursor.readBoolean();
+        roleDefinition = new RoleDefinition();
+        roleDefinition.setId(cursor.readString());
+        roleDefinition.setType(cursor.readString());
+        roleDefinition.setName(cursor.readString());
+        RoleDefinitionProperty properties = new RoleDefinitionProperty();
+        properties.setRoleName(cursor.readString());
+        properties.setType(cursor.readString());
+        properties.setDescription(cursor.readString());
+        roleDefinition.setProperties(hasProperties ? properties : null);
+        roleDefinitions[index] = roleDefinition;
+        return roleDefinition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<RoleAssignment> readRoleAssignments(Cursor cursor) {
+        int count = cursor.readInt();
+        List<RoleAssignment> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(getRoleAssignment(cursor.readInt()));
+        }
+        return list;
+    }
+
+    private <T extends BaseData> T readBaseData(Cursor cursor, Supplier<T> factory) {
+        T baseData = factory.get();
+        baseData.setId(cursor.readString());
+        baseData.setDisplayName(cursor.readString());
+        baseData.setDescription(cursor.readString());
+        baseData.setOdata_type(cursor.readString());
+        return baseData;
+    }
+
+    private String getString(int ref) {
+        if (ref == SnapshotFormat.NULL_REF) {
+            return null;
+        }
+        String value = strings[ref];
+        if (value == null) {
+            long position = recordPosition(SnapshotFormat.Section.STRINGS, ref);
+            byte[] bytes = new byte[getInt(position)];
+            get(position + 4, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            strings[ref] = value;
+        }
+        return value;
+    }
+
+    private static LocalDateTime parseDate(String value) {
+        return value == null ? null : LocalDateTime.parse(value);
+    }
+
+    private int count(SnapshotFormat.Section section) {
+        return counts[section.ordinal()];
+    }
+
+    private Cursor record(SnapshotFormat.Section section, int index) {
+        return new Cursor(recordPosition(section, index));
+    }
+
+    private long recordPosition(SnapshotFormat.Section section, int index) {
+        if (index < 0 || index >= count(section)) {
+            throw new IndexOutOfBoundsException(section + " record " + index + " of " + count(section));
+        }
+        return getLong(indexOffsets[section.ordinal()] + 4 + index * 8L);
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position >> segmentShift)].get((int) (position & segmentMask));
+    }
+
+    private int getInt(long position) {
+        MappedByteBuffer segment = segments[(int) (position >> segmentShift)];
+        int offset = (int) (position & segmentMask);
+        if (offset + 4 <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        //The value straddles two segments
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (get(position + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private long getLong(long position) {
+        return ((long) getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+    }
+
+    private void get(long position, byte[] bytes) {
+        int copied = 0;
+        while (copied < bytes.length) {
+            ByteBuffer segment = segments[(int) ((position + copied) >> segmentShift)].duplicate();
+            segment.position((int) ((position + copied) & segmentMask));
+            int length = Math.min(segment.remaining(), bytes.length - copied);
+            segment.get(bytes, copied, length);
+            copied += length;
+        }
+    }
+
+    private class Cursor {
+        private long position;
+
+        Cursor(long position) {
+            this.position = position;
+        }
+
+        int readInt() {
+            int value = getInt(position);
+            position += 4;
+            return value;
+        }
+
+        boolean readBoolean() {
+            return get(position++) != 0;
+        }
+
+        String readString() {
+            return getString(readInt());
+        }
+    }
+
+    private static class LazyList<T> extends AbstractList<T> {
+        private final int size;
+        private final IntFunction<T> reader;
+
+        LazyList(int size, IntFunction<T> reader) {
+            this.size = size;
+            this.reader = reader;
+        }
+
+        @Override
+        public T get(int index) {
+            return reader.apply(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.snapshot;
+
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinitionProperty;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes users, groups, role assignments and role definitions to a snapshot file one record at a time.
+ * Shared role assignments and definitions are written once and referenced by number from every principal holding them.
+ * The snapshot is written to a temp file next to it and only replaces the previous one when the writer is closed
+ * after {@link #complete()}, a failed run leaves the last good snapshot in place.
+ * Strings are written as soon as they are first seen and only the most recently used ones are remembered, a string
+ * that dropped out of that cache is written again, so the heap stays bounded however large the tenant is. Not thread safe.
+ */
+public class SnapshotWriter implements AutoCloseable {
+    public static final int DEFAULT_STRING_CACHE_SIZE = 65536;
+
+    private final Path path;
+    private final Path tempPath;
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final Map<SnapshotFormat.Section, LongList> offsets = new EnumMap<>(SnapshotFormat.Section.class);
+    private final Map<String, Integer> strings;
+    private final Map<RoleAssignment, Integer> roleAssignments = new IdentityHashMap<>();
+    private final Map<RoleDefinition, Integer> roleDefinitions = new IdentityHashMap<>();
+    private boolean completed;
+
+    public SnapshotWriter(Path path) throws IOException {
+        this(path, DEFAULT_STRING_CACHE_SIZE);
+    }
+
+    public SnapshotWriter(Path path, int stringCacheSize) throws IOException {
+        this.path = path;
+        this.strings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > stringCacheSize;
+            }
+        };
+        this.tempPath = Paths.get(path + ".tmp");
+        this.counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)));
+        this.out = new DataOutputStream(counter);
+        for (SnapshotFormat.Section section : SnapshotFormat.Section.values()) {
+            offsets.put(section, new LongList());
+        }
+        //Header, the index offsets are filled in on close
+        out.writeInt(SnapshotFormat.MAGIC);
+        out.writeInt(SnapshotFormat.VERSION);
+        for (int i = 0; i < SnapshotFormat.Section.values().length; i++) {
+            out.writeLong(0);
+        }
+    }
+
+    public void writeRoleAssignments(Iterable<RoleAssignment> roleAssignmentList) throws IOException {
+        for (RoleAssignment roleAssignment : roleAssignmentList) {
+            roleAssignmentRef(roleAssignment);
+        }
+    }
+
+    public void writeUser(AdUser adUser) throws IOException {
+        int[] assignmentRefs = roleAssignmentRefs(adUser.getRoleAssignments());
+        int[] baseRefs = baseRefs(adUser);
+        int mailRef = stringRef(adUser.getMail());
+        int userTypeRef = stringRef(adUser.getUserType());
+        List<int[]> groupRefs = new ArrayList<>();
+        for (Group group : adUser.getGroup()) {
+            groupRefs.add(baseRefs(group));
+        }
+        List<int[]> rolesRefs = new ArrayList<>();
+        for (Roles roles : adUser.getRoles()) {
+            rolesRefs.add(baseRefs(roles));
+        }
+
+        startRecord(SnapshotFormat.Section.USERS);
+        writeRefs(baseRefs);
+        out.writeInt(mailRef);
+        out.writeInt(userTypeRef);
+        writeRefList(groupRefs);
+        writeRefList(rolesRefs);
+        writeRefs(assignmentRefs.length, assignmentRefs);
+    }
+
+    public void writeGroup(AdGroup adGroup) throws IOException {
+        int[] assignmentRefs = roleAssignmentRefs(adGroup.getRoleAssignments());
+        int[] baseRefs = baseRefs(adGroup);
+        int[] groupTypeRefs = new int[adGroup.getGroupTypes().size()];
+        for (int i = 0; i < groupTypeRefs.length; i++) {
+            groupTypeRefs[i] = stringRef(adGroup.getGroupTypes().get(i));
+        }
+        List<int[]> memberRefs = new ArrayList<>();
+        for (User user : adGroup.getUsers()) {
+            memberRefs.add(baseRefs(user));
+        }
+
+        startRecord(SnapshotFormat.Section.GROUPS);
+        writeRefs(baseRefs);
+        writeRefs(groupTypeRefs.length, groupTypeRefs);
+        writeRefList(memberRefs);
+        writeRefs(assignmentRefs.length, assignmentRefs);
+    }
+
+    /**
+     * Marks everything as written, close() then finishes the file and moves it into place.
+     */
+    public void complete() {
+        completed = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!completed) {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+            return;
+        }
+        long[] indexOffsets = new long[SnapshotFormat.Section.values().length];
+        for (SnapshotFormat.Section section : SnapshotFormat.Section.values()) {
+            indexOffsets[section.ordinal()] = counter.getByteCount();
+            LongList sectionOffsets = offsets.get(section);
+            out.writeInt(sectionOffsets.size());
+            for (int i = 0; i < sectionOffsets.size(); i++) {
+                out.writeLong(sectionOffsets.get(i));
+            }
+        }
+        out.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(tempPath.toFile(), "rw")) {
+            file.seek(8);
+            for (long indexOffset : indexOffsets) {
+                file.writeLong(indexOffset);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int roleAssignmentRef(RoleAssignment roleAssignment) throws IOException {
+        Integer ref = roleAssignments.get(roleAssignment);
+        if (ref != null) {
+            return ref;
+        }
+        int definitionRef = roleDefinitionRef(roleAssignment.getRoleDefinition());
+        RoleAssignmentProperty properties = roleAssignment.getProperties();
+        int[] refs = new int[]{
+                stringRef(roleAssignment.getId()),
+                stringRef(roleAssignment.getType()),
+                stringRef(roleAssignment.getName()),
+                stringRef(properties == null ? null : properties.getRoleDefinitionId()),
+                stringRef(properties == null ? null : properties.getPrincipalId()),
+                stringRef(properties == null ? null : properties.getScope()),
+                stringRef(properties == null ? null : dateString(properties.getCreatedOn())),
+                stringRef(properties == null ? null : dateString(properties.getUpdatedOn())),
+                stringRef(properties == null ? null : properties.getCreatedBy()),
+                stringRef(properties == null ? null : properties.getUpdatedBy())
+        };
+
+        ref = offsets.get(SnapshotFormat.Section.ROLE_ASSIGNMENTS).size();
+        startRecord(SnapshotFormat.Section.ROLE_ASSIGNMENTS);
+        out.writeBoolean(properties != null);
+        writeRefs(refs);
+        out.writeInt(definitionRef);
+        roleAssignments.put(roleAssignment, ref);
+        return ref;
+    }
+
+    private int roleDefinitionRef(RoleDefinition roleDefinition) throws IOException {
+        if (roleDefinition == null) {
+            return SnapshotFormat.NULL_REF;
+        }
+        Integer ref = roleDefinitions.get(roleDefinition);
+        if (ref != null) {
+            return ref;
+        }
+        RoleDefinitionProperty properties = roleDefinition.getProperties();
+        int[] refs = new int[]{
+                stringRef(roleDefinition.getId()),
+                stringRef(roleDefinition.getType()),
+                stringRef(roleDefinition.getName()),
+                stringRef(properties == null ? null : properties.getRoleName()),
+                stringRef(properties == null ? null : properties.getType()),
+                stringRef(properties == null ? null : properties.getDescription())
+        };
+
+        ref = offsets.get(SnapshotFormat.Section.ROLE_DEFINITIONS).size();
+        startRecord(SnapshotFormat.Section.ROLE_DEFINITIONS);
+        out.writeBoolean(properties != null);
+        writeRefs(refs);
+        roleDefinitions.put(roleDefinition, ref);
+        return ref;
+    }
+
+    private int[] roleAssignmentRefs(List<RoleAssignment> roleAssignmentList) throws IOException {
+        int[] refs = new int[roleAssignmentList.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = roleAssignmentRef(roleAssignmentList.get(i));
+        }
+        return refs;
+    }
+
+    private int[] baseRefs(BaseData baseData) throws IOException {
+        return new int[]{
+                stringRef(baseData.getId()),
+                stringRef(baseData.getDisplayName()),
+                stringRef(baseData.getDescription()),
+                stringRef(baseData.getOdata_type())
+        };
+    }
+
+    private int stringRef(String value) throws IOException {
+        if (value == null) {
+            return SnapshotFormat.NULL_REF;
+        }
+        Integer ref = strings.get(value);
+        if (ref != null) {
+            return ref;
+        }
+        ref = offsets.get(SnapshotFormat.Section.STRINGS).size();
+        startRecord(SnapshotFormat.Section.STRINGS);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        strings.put(value, ref);
+        return ref;
+    }
+
+    private static String dateString(LocalDateTime dateTime) {
+        return dateTime == null ? null : dateTime.toString();
+    }
+
+    private void startRecord(SnapshotFormat.Section section) {
+        offsets.get(section).add(counter.getByteCount());
+    }
+
+    private void writeRefs(int[] refs) throws IOException {
+        for (int ref : refs) {
+            out.writeInt(ref);
+        }
+    }
+
+    private void writeRefs(int count, int[] refs) throws IOException {
+        out.writeInt(count);
+        writeRefs(refs);
+    }
+
+    private void writeRefList(List<int[]> refList) throws IOException {
+        out.writeInt(refList.size());
+        for (int[] refs : refList) {
+            writeRefs(refs);
+        }
+    }
+}
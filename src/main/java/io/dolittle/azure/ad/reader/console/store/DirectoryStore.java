@@ -0,0 +1,316 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.store;
+
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Compact in-memory form of the crawled directory.
+ * Every string is kept once in a dictionary and the records hold int references to it. A group or directory role
+ * that many users are member of, or a principal that is member of many groups, is stored once and the memberships
+ * are int edges to it. Role assignments are not copied at all, they are joined from the index when a view is read.
+ * <p>
+ * Users and groups are read back through list views that build a fresh AdUser or AdGroup on every access, changes
+ * made to them are not stored. Not thread safe while adding, the views can be shared once the store is sealed.
+ */
+public class DirectoryStore {
+    private static final int NONE = -1;
+    //id, displayName, description and @odata.type of every record, as dictionary references
+    private static final int BASE_FIELDS = 4;
+    private static final int MAIL = 4;
+    private static final int USER_TYPE = 5;
+
+    private final RoleAssignmentIndex roleAssignmentIndex;
+    private final StringDictionary strings = new StringDictionary();
+    //Groups, directory roles and members referenced by the memberships, shared between every principal pointing at them
+    private final Records objects = new Records(BASE_FIELDS);
+    private IntList objectByIdRef = new IntList();
+    private final Records users = new Records(BASE_FIELDS + 2);
+    private final Edges userGroups = new Edges();
+    private final Edges userRoles = new Edges();
+    private final Records groups = new Records(BASE_FIELDS);
+    private final Edges groupTypes = new Edges();
+    private final Edges groupMembers = new Edges();
+    private boolean sealed;
+
+    public DirectoryStore(RoleAssignmentIndex roleAssignmentIndex) {
+        this.roleAssignmentIndex = roleAssignmentIndex;
+    }
+
+    public RoleAssignmentIndex getRoleAssignmentIndex() {
+        return roleAssignmentIndex;
+    }
+
+    public void addUsers(Collection<AdUser> adUsers) {
+        adUsers.forEach(this::addUser);
+    }
+
+    public void addGroups(Collection<AdGroup> adGroups) {
+        adGroups.forEach(this::addGroup);
+    }
+
+    public void addUser(AdUser adUser) {
+        checkNotSealed();
+        int row = users.addRow();
+        setBaseData(users, row, adUser);
+        users.set(row, MAIL, strings.ref(adUser.getMail()));
+        users.set(row, USER_TYPE, strings.ref(adUser.getUserType()));
+        adUser.getGroup().forEach(group -> userGroups.add(addObject(group)));
+        userGroups.endRow();
+        adUser.getRoles().forEach(roles -> userRoles.add(addObject(roles)));
+        userRoles.endRow();
+    }
+
+    public void addGroup(AdGroup adGroup) {
+        checkNotSealed();
+        int row = groups.addRow();
+        setBaseData(groups, row, adGroup);
+        if (adGroup.getGroupTypes() != null) {
+            adGroup.getGroupTypes().forEach(groupType -> groupTypes.add(strings.ref(groupType)));
+        }
+        groupTypes.endRow();
+        if (adGroup.getUsers() != null) {
+            adGroup.getUsers().forEach(member -> groupMembers.add(addObject(member)));
+        }
+        groupMembers.endRow();
+    }
+
+    /**
+     * Drops the lookup tables only needed while adding and trims every array to its size.
+     */
+    public void seal() {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        strings.seal();
+        objectByIdRef = null;
+        objects.trimToSize();
+        users.trimToSize();
+        groups.trimToSize();
+        userGroups.trimToSize();
+        userRoles.trimToSize();
+        groupTypes.trimToSize();
+        groupMembers.trimToSize();
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    public String getUserId(int index) {
+        return strings.get(users.get(index, 0));
+    }
+
+    public String getUserDisplayName(int index) {
+        return strings.get(users.get(index, 1));
+    }
+
+    public String getGroupId(int index) {
+        return strings.get(groups.get(index, 0));
+    }
+
+    public String getGroupDisplayName(int index) {
+        return strings.get(groups.get(index, 1));
+    }
+
+    /**
+     * @return a list view that builds each user with its memberships and role assignments when it is accessed
+     */
+    public List<AdUser> getUsers() {
+        return new View<>(users.size(), this::getUser);
+    }
+
+    public List<AdGroup> getGroups() {
+        return new View<>(groups.size(), this::getGroup);
+    }
+
+    public AdUser getUser(int index) {
+        AdUser adUser = getBaseData(users, index, AdUser::new);
+        adUser.setMail(strings.get(users.get(index, MAIL)));
+        adUser.setUserType(strings.get(users.get(index, USER_TYPE)));
+        for (int edge = userGroups.start(index); edge < userGroups.end(index); edge++) {
+            adUser.getGroup().add(getBaseData(objects, userGroups.target(edge), Group::new));
+        }
+        for (int edge = userRoles.start(index); edge < userRoles.end(index); edge++) {
+            adUser.getRoles().add(getBaseData(objects, userRoles.target(edge), Roles::new));
+        }
+        //Same join as RoleAssignmentService.populateRoleAssignments, the direct assignments followed by those of each group
+        List<RoleAssignment> roleAssignments = new ArrayList<>(roleAssignmentIndex.getByPrincipalId(adUser.getId()));
+        adUser.getGroup().forEach(group -> roleAssignments.addAll(roleAssignmentIndex.getByPrincipalId(group.getId())));
+        adUser.setRoleAssignments(roleAssignments);
+        return adUser;
+    }
+
+    public AdGroup getGroup(int index) {
+        AdGroup adGroup = getBaseData(groups, index, AdGroup::new);
+        for (int edge = groupTypes.start(index); edge < groupTypes.end(index); edge++) {
+            adGroup.getGroupTypes().add(strings.get(groupTypes.target(edge)));
+        }
+        for (int edge = groupMembers.start(index); edge < groupMembers.end(index); edge++) {
+            adGroup.getUsers().add(getBaseData(objects, groupMembers.target(edge), User::new));
+        }
+        adGroup.setRoleAssignments(roleAssignmentIndex.getByPrincipalId(adGroup.getId()));
+        return adGroup;
+    }
+
+    //The same object seen again is shared, unless a different kind of listing returned other fields for its id
+    private int addObject(BaseData baseData) {
+        int idRef = strings.ref(baseData.getId());
+        if (idRef != StringDictionary.NULL_REF) {
+            while (objectByIdRef.size() <= idRef) {
+                objectByIdRef.add(NONE);
+            }
+            int row = objectByIdRef.get(idRef);
+            if (row != NONE && sameBaseData(row, baseData)) {
+                return row;
+            }
+        }
+        int row = objects.addRow();
+        setBaseData(objects, row, baseData);
+        if (idRef != StringDictionary.NULL_REF && objectByIdRef.get(idRef) == NONE) {
+            objectByIdRef.set(idRef, row);
+        }
+        return row;
+    }
+
+    private boolean sameBaseData(int row, BaseData baseData) {
+        return objects.get(row, 1) == strings.ref(baseData.getDisplayName())
+                && objects.get(row, 2) == strings.ref(baseData.getDescription())
+                && objects.get(row, 3) == strings.ref(baseData.getOdata_type());
+    }
+
+    private void setBaseData(Records records, int row, BaseData baseData) {
+        records.set(row, 0, strings.ref(baseData.getId()));
+        records.set(row, 1, strings.ref(baseData.getDisplayName()));
+        records.set(row, 2, strings.ref(baseData.getDescription()));
+        records.set(row, 3, strings.ref(baseData.getOdata_type()));
+    }
+
+    private <T extends BaseData> T getBaseData(Records records, int row, Supplier<T> factory) {
+        T baseData = factory.get();
+        baseData.setId(strings.get(records.get(row, 0)));
+        baseData.setDisplayName(strings.get(records.get(row, 1)));
+        baseData.setDescription(strings.get(records.get(row, 2)));
+        baseData.setOdata_type(strings.get(records.get(row, 3)));
+        return baseData;
+    }
+
+    private void checkNotSealed() {
+        if (sealed) {
+            throw new IllegalStateException("Directory store is sealed");
+        }
+    }
+
+    /**
+     * Fixed width rows of ints in one array.
+     */
+    private static final class Records {
+        private final int width;
+        private final IntList fields = new IntList();
+
+        Records(int width) {
+            this.width = width;
+        }
+
+        int addRow() {
+            for (int i = 0; i < width; i++) {
+                fields.add(StringDictionary.NULL_REF);
+            }
+            return size() - 1;
+        }
+
+        int get(int row, int field) {
+            return fields.get(row * width + field);
+        }
+
+        void set(int row, int field, int value) {
+            fields.set(row * width + field, value);
+        }
+
+        int size() {
+            return fields.size() / width;
+        }
+
+        void trimToSize() {
+            fields.trimToSize();
+        }
+    }
+
+    /**
+     * Edges of every row in one array, the edges of row r run from offsets[r] to offsets[r + 1].
+     * Rows have to be added in order.
+     */
+    private static final class Edges {
+        private final IntList offsets = new IntList();
+        private final IntList targets = new IntList();
+
+        Edges() {
+            offsets.add(0);
+        }
+
+        void add(int target) {
+            targets.add(target);
+        }
+
+        void endRow() {
+            offsets.add(targets.size());
+        }
+
+        int start(int row) {
+            return offsets.get(row);
+        }
+
+        int end(int row) {
+            return offsets.get(row + 1);
+        }
+
+        int target(int edge) {
+            return targets.get(edge);
+        }
+
+        void trimToSize() {
+            offsets.trimToSize();
+            targets.trimToSize();
+        }
+    }
+
+    private static class View<T> extends AbstractList<T> {
+        private final int size;
+        private final IntFunction<T> reader;
+
+        View(int size, IntFunction<T> reader) {
+            this.size = size;
+            this.reader = reader;
+        }
+
+        @Override
+        public T get(int index) {
+            return reader.apply(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
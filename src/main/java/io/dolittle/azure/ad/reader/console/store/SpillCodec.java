@@ -0,0 +1,121 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.store;
+
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Binary form of the users and groups spilled by {@link SpillStore}: the base fields, then each nested list as a
+ * count followed by its entries. Strings are a byte length, -1 for null, followed by the UTF-8 bytes.
+ * Role assignments are not written, they are joined from the index when a record is read back.
+ */
+final class SpillCodec {
+    private static final int NULL = -1;
+
+    private SpillCodec() {
+    }
+
+    static void writeUser(DataOutput out, AdUser adUser) throws IOException {
+        writeBaseData(out, adUser);
+        writeString(out, adUser.getMail());
+        writeString(out, adUser.getUserType());
+        writeList(out, adUser.getGroup());
+        writeList(out, adUser.getRoles());
+    }
+
+    static AdUser readUser(DataInput in) throws IOException {
+        AdUser adUser = readBaseData(in, AdUser::new);
+        adUser.setMail(readString(in));
+        adUser.setUserType(readString(in));
+        readList(in, adUser.getGroup(), Group::new);
+        readList(in, adUser.getRoles(), Roles::new);
+        return adUser;
+    }
+
+    static void writeGroup(DataOutput out, AdGroup adGroup) throws IOException {
+        writeBaseData(out, adGroup);
+        List<String> groupTypes = adGroup.getGroupTypes();
+        out.writeInt(groupTypes == null ? 0 : groupTypes.size());
+        if (groupTypes != null) {
+            for (String groupType : groupTypes) {
+                writeString(out, groupType);
+            }
+        }
+        writeList(out, adGroup.getUsers());
+    }
+
+    static AdGroup readGroup(DataInput in) throws IOException {
+        AdGroup adGroup = readBaseData(in, AdGroup::new);
+        int groupTypes = in.readInt();
+        for (int i = 0; i < groupTypes; i++) {
+            adGroup.getGroupTypes().add(readString(in));
+        }
+        readList(in, adGroup.getUsers(), User::new);
+        return adGroup;
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeList(DataOutput out, List<? extends BaseData> list) throws IOException {
+        out.writeInt(list == null ? 0 : list.size());
+        if (list != null) {
+            for (BaseData baseData : list) {
+                writeBaseData(out, baseData);
+            }
+        }
+    }
+
+    private static <T extends BaseData> void readList(DataInput in, List<T> target, Supplier<T> factory) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            target.add(readBaseData(in, factory));
+        }
+    }
+
+    private static void writeBaseData(DataOutput out, BaseData baseData) throws IOException {
+        writeString(out, baseData.getId());
+        writeString(out, baseData.getDisplayName());
+        writeString(out, baseData.getDescription());
+        writeString(out, baseData.getOdata_type());
+    }
+
+    private static <T extends BaseData> T readBaseData(DataInput in, Supplier<T> factory) throws IOException {
+        T baseData = factory.get();
+        baseData.setId(readString(in));
+        baseData.setDisplayName(readString(in));
+        baseData.setDescription(readString(in));
+        baseData.setOdata_type(readString(in));
+        return baseData;
+    }
+}
@@ -0,0 +1,420 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.store;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Disk-backed form of the crawled directory for tenants that do not fit on the heap.
+ * <p>
+ * Users and groups are encoded as they are added and buffered up to a fixed number of bytes. A full buffer is sorted
+ * by display name and id and spilled to a run file in a temp folder, so memory use stays the same regardless of the
+ * size of the tenant. Reading merges the runs and the last buffer back into one sorted sequence, each record decoded
+ * when it is reached. Role assignments are joined from the index on read, as in {@link DirectoryStore}.
+ * <p>
+ * Not thread safe while adding. Every getUsers() or getGroups() iteration reads the runs again, the files are
+ * deleted by close().
+ */
+public class SpillStore implements AutoCloseable {
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparing((Entry entry) -> entry.displayName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(entry -> entry.id, Comparator.nullsLast(Comparator.naturalOrder()));
+    //Object headers and references of an entry and its strings, on top of the encoded bytes
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int STREAM_BUFFER = 64 * 1024;
+
+    private final RoleAssignmentIndex roleAssignmentIndex;
+    private final Path directory;
+    private final long bufferSize;
+    private final boolean compress;
+    private final Section<AdUser> users;
+    private final Section<AdGroup> groups;
+    private final Set<Closeable> openRuns = ConcurrentHashMap.newKeySet();
+    private boolean sealed;
+
+    @FunctionalInterface
+    private interface Encoder<T> {
+        void write(DataOutputStream out, T record) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * @param parentDirectory where the temp folder holding the runs is created
+     * @param bufferSize      bytes of encoded users, or groups, kept in memory before they are spilled
+     * @param compress        gzip the run files
+     */
+    public SpillStore(RoleAssignmentIndex roleAssignmentIndex, Path parentDirectory, long bufferSize, boolean compress) throws IOException {
+        this.roleAssignmentIndex = roleAssignmentIndex;
+        this.directory = Files.createTempDirectory(Files.createDirectories(parentDirectory), "ad-reader-spill-");
+        this.bufferSize = Math.max(1, bufferSize);
+        this.compress = compress;
+        this.users = new Section<>("users", SpillCodec::writeUser, this::readUser);
+        this.groups = new Section<>("groups", SpillCodec::writeGroup, this::readGroup);
+    }
+
+    public RoleAssignmentIndex getRoleAssignmentIndex() {
+        return roleAssignmentIndex;
+    }
+
+    public void addUsers(Collection<AdUser> adUsers) {
+        adUsers.forEach(this::addUser);
+    }
+
+    public void addGroups(Collection<AdGroup> adGroups) {
+        adGroups.forEach(this::addGroup);
+    }
+
+    public void addUser(AdUser adUser) {
+        checkNotSealed();
+        users.add(adUser, adUser.getDisplayName(), adUser.getId());
+    }
+
+    public void addGroup(AdGroup adGroup) {
+        checkNotSealed();
+        groups.add(adGroup, adGroup.getDisplayName(), adGroup.getId());
+    }
+
+    /**
+     * Sorts the records still buffered, they are merged with the runs on disk without being spilled themselves.
+     */
+    public void seal() {
+        if (sealed) {
+            return;
+        }
+        sealed = true;
+        users.seal();
+        groups.seal();
+    }
+
+    public int getUserCount() {
+        return users.count;
+    }
+
+    public int getGroupCount() {
+        return groups.count;
+    }
+
+    /**
+     * @return the number of run files spilled to disk, 0 when everything fit in the buffers
+     */
+    public int getRunCount() {
+        return users.runs.size() + groups.runs.size();
+    }
+
+    /**
+     * @return the users ordered by display name, each with its memberships and role assignments
+     */
+    public Iterable<AdUser> getUsers() {
+        checkSealed();
+        return users::iterator;
+    }
+
+    /**
+     * @return the groups ordered by display name, each with its members and role assignments
+     */
+    public Iterable<AdGroup> getGroups() {
+        checkSealed();
+        return groups::iterator;
+    }
+
+    /**
+     * Closes the runs still being read and deletes the temp folder.
+     */
+    @Override
+    public void close() {
+        for (Closeable run : openRuns) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                //Deleted below either way
+            }
+        }
+        openRuns.clear();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to delete " + directory, e);
+        }
+    }
+
+    //Same join as DirectoryStore.getUser
+    private AdUser readUser(DataInputStream in) throws IOException {
+        AdUser adUser = SpillCodec.readUser(in);
+        List<RoleAssignment> roleAssignments = new ArrayList<>(roleAssignmentIndex.getByPrincipalId(adUser.getId()));
+        adUser.getGroup().forEach(group -> roleAssignments.addAll(roleAssignmentIndex.getByPrincipalId(group.getId())));
+        adUser.setRoleAssignments(roleAssignments);
+        return adUser;
+    }
+
+    private AdGroup readGroup(DataInputStream in) throws IOException {
+        AdGroup adGroup = SpillCodec.readGroup(in);
+        adGroup.setRoleAssignments(roleAssignmentIndex.getByPrincipalId(adGroup.getId()));
+        return adGroup;
+    }
+
+    private void checkNotSealed() {
+        if (sealed) {
+            throw new IllegalStateException("Spill store is sealed");
+        }
+    }
+
+    private void checkSealed() {
+        if (!sealed) {
+            throw new IllegalStateException("Spill store is not sealed");
+        }
+    }
+
+    private static final class Entry {
+        private final String displayName;
+        private final String id;
+        private final byte[] bytes;
+
+        Entry(String displayName, String id, byte[] bytes) {
+            this.displayName = displayName;
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The buffer and the spilled runs of one record type.
+     */
+    private final class Section<T> {
+        private final String name;
+        private final Encoder<T> encoder;
+        private final Decoder<T> decoder;
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        private final DataOutputStream encodedOut = new DataOutputStream(encoded);
+        private final List<Path> runs = new ArrayList<>();
+        private List<Entry> buffer = new ArrayList<>();
+        private long bufferedBytes;
+        private int count;
+
+        Section(String name, Encoder<T> encoder, Decoder<T> decoder) {
+            this.name = name;
+            this.encoder = encoder;
+            this.decoder = decoder;
+        }
+
+        void add(T record, String displayName, String id) {
+            try {
+                encoded.reset();
+                encoder.write(encodedOut, record);
+                Entry entry = new Entry(displayName, id, encoded.toByteArray());
+                buffer.add(entry);
+                count++;
+                bufferedBytes += entry.bytes.length + ENTRY_OVERHEAD
+                        + (displayName == null ? 0 : displayName.length()) + (id == null ? 0 : id.length());
+                if (bufferedBytes >= bufferSize) {
+                    spill();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to spill " + name, e);
+            }
+        }
+
+        void seal() {
+            buffer.sort(ORDER);
+        }
+
+        private void spill() throws IOException {
+            buffer.sort(ORDER);
+            Path run = directory.resolve(name + "-" + runs.size() + ".run");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(openOutput(run), STREAM_BUFFER))) {
+                for (Entry entry : buffer) {
+                    SpillCodec.writeString(out, entry.displayName);
+                    SpillCodec.writeString(out, entry.id);
+                    out.writeInt(entry.bytes.length);
+                    out.write(entry.bytes);
+                }
+            }
+            runs.add(run);
+            //A new list, the old one may be that big only once
+            buffer = new ArrayList<>();
+            bufferedBytes = 0;
+        }
+
+        Iterator<T> iterator() {
+            List<Cursor> cursors = new ArrayList<>();
+            try {
+                for (Path run : runs) {
+                    cursors.add(new RunCursor(run));
+                }
+            } catch (IOException e) {
+                cursors.forEach(Cursor::close);
+                throw new UncheckedIOException("Unable to read spilled " + name, e);
+            }
+            cursors.add(new BufferCursor(buffer));
+            return new MergeIterator<>(cursors, decoder, name);
+        }
+    }
+
+    private OutputStream openOutput(Path run) throws IOException {
+        OutputStream out = Files.newOutputStream(run);
+        if (!compress) {
+            return out;
+        }
+        return new GZIPOutputStream(out, STREAM_BUFFER) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    private InputStream openInput(Path run) throws IOException {
+        InputStream in = Files.newInputStream(run);
+        return compress ? new GZIPInputStream(in, STREAM_BUFFER) : in;
+    }
+
+    /**
+     * Position in one sorted run, the entry it is at is compared against the other runs.
+     */
+    private abstract static class Cursor {
+        Entry current;
+
+        //Moves to the next entry, false at the end of the run
+        abstract boolean advance();
+
+        void close() {
+        }
+    }
+
+    private static final class BufferCursor extends Cursor {
+        private final List<Entry> entries;
+        private int next;
+
+        BufferCursor(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        boolean advance() {
+            current = next < entries.size() ? entries.get(next++) : null;
+            return current != null;
+        }
+    }
+
+    private final class RunCursor extends Cursor implements Closeable {
+        private final Path run;
+        private final DataInputStream in;
+
+        RunCursor(Path run) throws IOException {
+            this.run = run;
+            this.in = new DataInputStream(new BufferedInputStream(openInput(run), STREAM_BUFFER));
+            openRuns.add(this);
+        }
+
+        @Override
+        boolean advance() {
+            try {
+                String displayName;
+                try {
+                    displayName = SpillCodec.readString(in);
+                } catch (EOFException e) {
+                    current = null;
+                    close();
+                    return false;
+                }
+                String id = SpillCodec.readString(in);
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                current = new Entry(displayName, id, bytes);
+                return true;
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException("Unable to read " + run, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            openRuns.remove(this);
+            try {
+                in.close();
+            } catch (IOException e) {
+                //Nothing more is read from it
+            }
+        }
+    }
+
+    /**
+     * K-way merge of the sorted runs, the next record is the smallest entry any run is at.
+     */
+    private static final class MergeIterator<T> implements Iterator<T> {
+        private final PriorityQueue<Cursor> queue;
+        private final Decoder<T> decoder;
+        private final String name;
+
+        MergeIterator(List<Cursor> cursors, Decoder<T> decoder, String name) {
+            this.queue = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> ORDER.compare(a.current, b.current));
+            this.decoder = decoder;
+            this.name = name;
+            for (Cursor cursor : cursors) {
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Cursor cursor = queue.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            Entry entry = cursor.current;
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.bytes))) {
+                return decoder.read(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read spilled " + name, e);
+            }
+        }
+    }
+}
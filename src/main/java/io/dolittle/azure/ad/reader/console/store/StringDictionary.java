@@ -0,0 +1,77 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.store;
+
+import java.util.Arrays;
+
+/**
+ * Numbers every distinct string in the order it is first seen, so each one is kept once and referenced by an int.
+ * The lookup is an open addressing table of ints instead of a HashMap, and is dropped by seal().
+ */
+final class StringDictionary {
+    static final int NULL_REF = -1;
+
+    private String[] values = new String[1024];
+    private int size;
+    //Holds ref + 1 so 0 marks an empty slot
+    private int[] slots = new int[2048];
+
+    int ref(String value) {
+        if (value == null) {
+            return NULL_REF;
+        }
+        if (slots == null) {
+            throw new IllegalStateException("Dictionary is sealed");
+        }
+        int mask = slots.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int ref = slots[slot] - 1;
+            if (values[ref].equals(value)) {
+                return ref;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        int ref = size++;
+        values[ref] = value;
+        slots[slot] = ref + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return ref;
+    }
+
+    String get(int ref) {
+        return ref == NULL_REF ? null : values[ref];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void seal() {
+        slots = null;
+        values = Arrays.copyOf(values, size);
+    }
+
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int ref = 0; ref < size; ref++) {
+            int slot = spread(values[ref].hashCode()) & mask;
+            while (rehashed[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            rehashed[slot] = ref + 1;
+        }
+        slots = rehashed;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
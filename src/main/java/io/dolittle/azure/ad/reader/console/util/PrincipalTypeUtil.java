@@ -0,0 +1,40 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.util;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+
+import static io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentIndex.normalizeId;
+
+/**
+ * The principal type column of the reports: U for an assignment to the user itself, otherwise the name of the group
+ * it is assigned to. Worked out from the user or group the assignment is listed under, the shared
+ * {@link RoleAssignment} instances are never labelled.
+ */
+public class PrincipalTypeUtil {
+    public static final String USER = "U";
+
+    public static String getPrincipalType(AdUser adUser, RoleAssignment roleAssignment) {
+        String principalId = roleAssignment.getProperties() == null ? null : normalizeId(roleAssignment.getProperties().getPrincipalId());
+        if (principalId == null) {
+            return null;
+        }
+        if (principalId.equals(normalizeId(adUser.getId()))) {
+            return USER;
+        }
+        for (Group group : adUser.getGroup()) {
+            if (principalId.equals(normalizeId(group.getId()))) {
+                return group.getDisplayName();
+            }
+        }
+        return null;
+    }
+
+    public static String getPrincipalType(AdGroup adGroup) {
+        return adGroup.getDisplayName();
+    }
+}
@@ -6,8 +6,6 @@ package io.dolittle.azure.ad.reader.console.util;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
-import org.springframework.web.client.RestTemplate;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
@@ -16,12 +14,6 @@ import java.util.Arrays;
 public class RESTUtil {
 
 
-    public static RestTemplate getRestTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
-        restTemplate.getMessageConverters().add(0, new MappingJackson2HttpMessageConverter());
-        return restTemplate;
-    }
-
     public static HttpHeaders getHeaderWithBearerToken(String token){
         HttpHeaders headers = new HttpHeaders();
         headers.add("Authorization", "Bearer " + token);
@@ -0,0 +1,143 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.client;
+
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.service.AuthenticationService;
+import io.dolittle.azure.ad.reader.console.service.CrawlMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+/**
+ * Runs the batch client against canned $batch responses from a mock server.
+ */
+class GraphBatchClientTest {
+    private static final String BASE_URL = "https://graph.test/v1.0";
+
+    private MockRestServiceServer server;
+    private GraphBatchClient graphBatchClient;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        AuthenticationService authenticationService = mock(AuthenticationService.class);
+        when(authenticationService.authenticate(any())).thenReturn("token");
+        CrawlMetrics crawlMetrics = new CrawlMetrics(new SimpleMeterRegistry(), false, "target/run-metrics.txt");
+        RequestLimiter requestLimiter = new RequestLimiter(crawlMetrics, 4, 4, 3.0, 2, Duration.ZERO, Duration.ZERO);
+        GraphRestClient graphRestClient = new GraphRestClient(BASE_URL, authenticationService, requestLimiter, restTemplate);
+        graphBatchClient = new GraphBatchClient(graphRestClient, requestLimiter, crawlMetrics, 20);
+    }
+
+    @Test
+    void followsNextLinksInTheNextBatch() {
+        expectBatch("{\"responses\":["
+                + item("g1", 200, page(BASE_URL + "/groups/g1/transitiveMembers?$skiptoken=x", "u1"))
+                + "," + item("g2", 200, page(null, "u2"))
+                + "]}");
+        server.expect(requestTo(BASE_URL + "/$batch"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.requests.length()").value(1))
+                .andExpect(jsonPath("$.requests[0].url").value("/groups/g1/transitiveMembers?$skiptoken=x"))
+                .andRespond(withSuccess("{\"responses\":[" + item("g1", 200, page(null, "u3")) + "]}", MediaType.APPLICATION_JSON));
+
+        Map<String, List<User>> members = graphBatchClient.getGroupMembers(List.of("g1", "g2"));
+
+        server.verify();
+        assertThat(ids(members.get("g1"))).containsExactly("u1", "u3");
+        assertThat(ids(members.get("g2"))).containsExactly("u2");
+    }
+
+    @Test
+    void retriesFailedAndUnansweredItemsOnTheirOwn() {
+        expectBatch("{\"responses\":["
+                + item("g1", 200, page(null, "u1"))
+                + "," + item("g2", 500, "{\"error\":{\"code\":\"InternalServerError\"}}")
+                + "]}");
+        expectGet("/groups/g2/transitiveMembers", page(null, "u2"));
+        expectGet("/groups/g3/transitiveMembers", page(null, "u3"));
+
+        Map<String, List<User>> members = graphBatchClient.getGroupMembers(List.of("g1", "g2", "g3"));
+
+        server.verify();
+        assertThat(ids(members.get("g1"))).containsExactly("u1");
+        assertThat(ids(members.get("g2"))).containsExactly("u2");
+        assertThat(ids(members.get("g3"))).containsExactly("u3");
+    }
+
+    @Test
+    void sendsThrottledItemsAgainAfterRetryAfter() {
+        expectBatch("{\"responses\":["
+                + "{\"id\":\"g1\",\"status\":429,\"headers\":{\"Retry-After\":\"0\"},\"body\":{\"error\":{\"code\":\"TooManyRequests\"}}}"
+                + "," + item("g2", 200, page(null, "u2"))
+                + "]}");
+        server.expect(requestTo(BASE_URL + "/$batch"))
+                .andExpect(jsonPath("$.requests.length()").value(1))
+                .andExpect(jsonPath("$.requests[0].id").value("g1"))
+                .andRespond(withSuccess("{\"responses\":[" + item("g1", 200, page(null, "u1")) + "]}", MediaType.APPLICATION_JSON));
+
+        Map<String, List<User>> members = graphBatchClient.getGroupMembers(List.of("g1", "g2"));
+
+        server.verify();
+        assertThat(ids(members.get("g1"))).containsExactly("u1");
+        assertThat(ids(members.get("g2"))).containsExactly("u2");
+    }
+
+    @Test
+    void givesEveryIdAnEntry() {
+        expectBatch("{\"responses\":[" + item("g1", 200, page(null)) + "]}");
+
+        Map<String, List<User>> members = graphBatchClient.getGroupMembers(List.of("g1"));
+
+        server.verify();
+        assertThat(members.get("g1")).isEmpty();
+    }
+
+    private void expectBatch(String response) {
+        server.expect(requestTo(BASE_URL + "/$batch"))
+                .andExpect(method(HttpMethod.POST))
+                .andRespond(withSuccess(response, MediaType.APPLICATION_JSON));
+    }
+
+    private void expectGet(String path, String response) {
+        server.expect(requestTo(BASE_URL + path))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(response, MediaType.APPLICATION_JSON));
+    }
+
+    private static String item(String id, int status, String body) {
+        return "{\"id\":\"" + id + "\",\"status\":" + status + ",\"body\":" + body + "}";
+    }
+
+    private static String page(String nextLink, String... userIds) {
+        String values = List.of(userIds).stream()
+                .map(id -> "{\"@odata.type\":\"#microsoft.graph.user\",\"id\":\"" + id + "\",\"displayName\":\"User " + id + "\"}")
+                .collect(Collectors.joining(","));
+        return "{\"value\":[" + values + "]" + (nextLink == null ? "" : ",\"@odata.nextLink\":\"" + nextLink + "\"") + "}";
+    }
+
+    private static List<String> ids(List<? extends BaseData> directoryObjects) {
+        return directoryObjects.stream().map(BaseData::getId).collect(Collectors.toList());
+    }
+}
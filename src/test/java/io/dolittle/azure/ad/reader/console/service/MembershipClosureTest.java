@@ -0,0 +1,210 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.service;
+
+import io.dolittle.azure.ad.reader.console.model.BaseData;
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the local closure with the transitive memberships Graph reports, worked out here by walking the direct
+ * memberships of every group.
+ */
+class MembershipClosureTest {
+    private Map<String, List<String>> directMembers;
+    private Set<String> groupIds;
+    private Set<String> roleIds;
+    private Set<String> userIds;
+
+    @BeforeEach
+    void setUp() {
+        directMembers = new LinkedHashMap<>();
+        groupIds = new LinkedHashSet<>();
+        roleIds = new LinkedHashSet<>();
+        userIds = new LinkedHashSet<>();
+    }
+
+    @Test
+    void resolvesCycles() {
+        group("a", "b", "u1");
+        group("b", "c", "u2");
+        group("c", "a", "u3");
+        role("r1", "b");
+        users("u1", "u2", "u3");
+
+        MembershipClosure closure = compute();
+
+        assertThat(members(closure, "a")).containsExactlyInAnyOrder("b", "c", "u1", "u2", "u3");
+        assertThat(members(closure, "b")).containsExactlyInAnyOrder("a", "c", "u1", "u2", "u3");
+        assertMatchesGraph(closure);
+    }
+
+    @Test
+    void leavesSelfMembershipOut() {
+        group("a", "a", "u1");
+        group("b", "a");
+        users("u1");
+
+        MembershipClosure closure = compute();
+
+        assertThat(members(closure, "a")).containsExactly("u1");
+        assertThat(members(closure, "b")).containsExactlyInAnyOrder("a", "u1");
+        assertMatchesGraph(closure);
+    }
+
+    @Test
+    void resolvesDeepChains() {
+        int depth = 1000;
+        for (int i = 0; i < depth - 1; i++) {
+            group("g" + i, "g" + (i + 1));
+        }
+        group("g" + (depth - 1), "u1");
+        role("r1", "g" + (depth - 1));
+        users("u1");
+
+        MembershipClosure closure = compute();
+
+        assertThat(members(closure, "g0")).hasSize(depth);
+        assertThat(groupsOf(closure, "u1")).hasSize(depth);
+        assertMatchesGraph(closure);
+    }
+
+    @Test
+    void matchesGraphOnRandomNesting() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            users("u" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            List<String> members = new ArrayList<>();
+            for (int j = random.nextInt(6); j > 0; j--) {
+                members.add("g" + random.nextInt(100));
+            }
+            for (int j = random.nextInt(6); j > 0; j--) {
+                members.add("u" + random.nextInt(200));
+            }
+            group("g" + i, members.toArray(new String[0]));
+        }
+        for (int i = 0; i < 5; i++) {
+            role("r" + i, "g" + random.nextInt(100), "u" + random.nextInt(200));
+        }
+
+        assertMatchesGraph(compute());
+    }
+
+    private void assertMatchesGraph(MembershipClosure closure) {
+        Map<String, Set<String>> graph = new LinkedHashMap<>();
+        directMembers.keySet().forEach(containerId -> graph.put(containerId, transitiveMembers(containerId)));
+        for (String groupId : groupIds) {
+            assertThat(members(closure, groupId)).as("members of %s", groupId).containsExactlyInAnyOrderElementsOf(graph.get(groupId));
+        }
+        for (String principalId : principals()) {
+            assertThat(groupsOf(closure, principalId)).as("groups of %s", principalId).containsExactlyInAnyOrderElementsOf(
+                    groupIds.stream().filter(groupId -> graph.get(groupId).contains(principalId)).collect(Collectors.toList()));
+            assertThat(rolesOf(closure, principalId)).as("roles of %s", principalId).containsExactlyInAnyOrderElementsOf(
+                    roleIds.stream().filter(roleId -> graph.get(roleId).contains(principalId)).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * What Graph answers for transitiveMembers: everything reachable through nested groups, without the container itself.
+     */
+    private Set<String> transitiveMembers(String containerId) {
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>(directMembers.getOrDefault(containerId, List.of()));
+        while (!pending.isEmpty()) {
+            String memberId = pending.pop();
+            if (reached.add(memberId) && groupIds.contains(memberId)) {
+                pending.addAll(directMembers.getOrDefault(memberId, List.of()));
+            }
+        }
+        reached.remove(containerId);
+        return reached;
+    }
+
+    private MembershipClosure compute() {
+        MembershipClosure closure = new MembershipClosure();
+        for (String groupId : groupIds) {
+            AdGroup adGroup = new AdGroup();
+            adGroup.setId(groupId);
+            closure.addGroup(adGroup);
+        }
+        for (String roleId : roleIds) {
+            Roles directoryRole = new Roles();
+            directoryRole.setId(roleId);
+            closure.addDirectoryRole(directoryRole);
+        }
+        directMembers.forEach((containerId, memberIds) -> closure.addDirectMembers(containerId,
+                memberIds.stream().map(MembershipClosureTest::member).collect(Collectors.toList())));
+        closure.compute();
+        return closure;
+    }
+
+    private List<String> principals() {
+        List<String> principals = new ArrayList<>(userIds);
+        principals.addAll(groupIds);
+        return principals;
+    }
+
+    private static List<String> members(MembershipClosure closure, String groupId) {
+        AdGroup adGroup = new AdGroup();
+        adGroup.setId(groupId);
+        return ids(closure.populateGroups(List.of(adGroup)).get(0).getUsers());
+    }
+
+    private static List<String> groupsOf(MembershipClosure closure, String principalId) {
+        return ids(populate(closure, principalId).getGroup());
+    }
+
+    private static List<String> rolesOf(MembershipClosure closure, String principalId) {
+        return ids(populate(closure, principalId).getRoles());
+    }
+
+    private static AdUser populate(MembershipClosure closure, String principalId) {
+        AdUser adUser = new AdUser();
+        adUser.setId(principalId);
+        return closure.populateUsers(List.of(adUser)).get(0);
+    }
+
+    private void group(String groupId, String... memberIds) {
+        groupIds.add(groupId);
+        directMembers.computeIfAbsent(groupId, id -> new ArrayList<>()).addAll(List.of(memberIds));
+    }
+
+    private void role(String roleId, String... memberIds) {
+        roleIds.add(roleId);
+        directMembers.computeIfAbsent(roleId, id -> new ArrayList<>()).addAll(List.of(memberIds));
+    }
+
+    private void users(String... ids) {
+        userIds.addAll(List.of(ids));
+    }
+
+    private static User member(String id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private static List<String> ids(List<? extends BaseData> directoryObjects) {
+        return directoryObjects.stream().map(BaseData::getId).collect(Collectors.toList());
+    }
+}
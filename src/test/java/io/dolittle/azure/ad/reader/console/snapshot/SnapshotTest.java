@@ -0,0 +1,174 @@
+// Copyright (c) Dolittle. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package io.dolittle.azure.ad.reader.console.snapshot;
+
+import io.dolittle.azure.ad.reader.console.model.group.AdGroup;
+import io.dolittle.azure.ad.reader.console.model.group.User;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignment;
+import io.dolittle.azure.ad.reader.console.model.roleassignment.RoleAssignmentProperty;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinition;
+import io.dolittle.azure.ad.reader.console.model.roledefinition.RoleDefinitionProperty;
+import io.dolittle.azure.ad.reader.console.model.user.AdUser;
+import io.dolittle.azure.ad.reader.console.model.user.Group;
+import io.dolittle.azure.ad.reader.console.model.user.Roles;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Writes snapshots and reads them back.
+ */
+class SnapshotTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        Path path = folder.resolve("directory.snapshot");
+        RoleAssignment roleAssignment = roleAssignment("a1", roleDefinition("d1"));
+        List<AdUser> adUsers = List.of(user("u1", "Jane", "jane@test", roleAssignment), user("u2", null, null));
+        AdGroup adGroup = group("g1", "Admins", roleAssignment);
+        write(path, SnapshotWriter.DEFAULT_STRING_CACHE_SIZE, adUsers, adGroup);
+
+        try (SnapshotReader reader = new SnapshotReader(path)) {
+            assertThat(reader.getUsers()).isEqualTo(adUsers);
+            assertThat(reader.getGroups()).containsExactly(adGroup);
+            //Shared assignments are read back as shared instances
+            assertThat(reader.getUser(0).getRoleAssignments().get(0)).isSameAs(reader.getGroup(0).getRoleAssignments().get(0));
+        }
+    }
+
+    @Test
+    void keepsNullStringsAndProperties() throws IOException {
+        Path path = folder.resolve("directory.snapshot");
+        RoleAssignment roleAssignment = new RoleAssignment();
+        AdUser adUser = user(null, null, null, roleAssignment);
+        adUser.getGroup().add(new Group());
+        write(path, SnapshotWriter.DEFAULT_STRING_CACHE_SIZE, List.of(adUser));
+
+        try (SnapshotReader reader = new SnapshotReader(path)) {
+            AdUser read = reader.getUser(0);
+            assertThat(read).isEqualTo(adUser);
+            assertThat(read.getRoleAssignments().get(0).getProperties()).isNull();
+            assertThat(read.getRoleAssignments().get(0).getRoleDefinition()).isNull();
+        }
+    }
+
+    @Test
+    void readsStringsStoredMoreThanOnce() throws IOException {
+        Path path = folder.resolve("directory.snapshot");
+        List<AdUser> adUsers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            adUsers.add(user("u" + i, "Name " + (i % 7), i % 2 == 0 ? null : "mail" + (i % 3)));
+        }
+        write(path, 2, adUsers);
+
+        //Tiny segments put plenty of values across a segment boundary
+        try (SnapshotReader reader = new SnapshotReader(path, 4)) {
+            assertThat(reader.getUsers()).isEqualTo(adUsers);
+        }
+    }
+
+    @Test
+    void rejectsOtherVersions() throws IOException {
+        Path path = folder.resolve("directory.snapshot");
+        write(path, SnapshotWriter.DEFAULT_STRING_CACHE_SIZE, List.of(user("u1", "Jane", null)));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(4);
+            file.writeInt(1);
+        }
+
+        assertThatThrownBy(() -> new SnapshotReader(path)).isInstanceOf(IOException.class).hasMessageContaining("unsupported version");
+    }
+
+    @Test
+    void keepsThePreviousSnapshotWhenNotCompleted() throws IOException {
+        Path path = folder.resolve("directory.snapshot");
+        write(path, SnapshotWriter.DEFAULT_STRING_CACHE_SIZE, List.of(user("u1", "Jane", null)));
+
+        try (SnapshotWriter writer = new SnapshotWriter(path)) {
+            writer.writeUser(user("u2", "John", null));
+        }
+
+        assertThat(Files.exists(folder.resolve("directory.snapshot.tmp"))).isFalse();
+        try (SnapshotReader reader = new SnapshotReader(path)) {
+            assertThat(reader.getUserCount()).isEqualTo(1);
+            assertThat(reader.getUser(0).getId()).isEqualTo("u1");
+        }
+    }
+
+    private static void write(Path path, int stringCacheSize, List<AdUser> adUsers, AdGroup... adGroups) throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(path, stringCacheSize)) {
+            for (AdUser adUser : adUsers) {
+                writer.writeUser(adUser);
+            }
+            for (AdGroup adGroup : adGroups) {
+                writer.writeGroup(adGroup);
+            }
+            writer.complete();
+        }
+    }
+
+    private static AdUser user(String id, String displayName, String mail, RoleAssignment... roleAssignments) {
+        AdUser adUser = new AdUser();
+        adUser.setId(id);
+        adUser.setDisplayName(displayName);
+        adUser.setMail(mail);
+        adUser.setRoleAssignments(new ArrayList<>(List.of(roleAssignments)));
+        if (id != null) {
+            Group group = new Group();
+            group.setId("g-" + id);
+            group.setDisplayName("Group of " + id);
+            adUser.getGroup().add(group);
+            Roles roles = new Roles();
+            roles.setId("r-" + id);
+            adUser.getRoles().add(roles);
+        }
+        return adUser;
+    }
+
+    private static AdGroup group(String id, String displayName, RoleAssignment... roleAssignments) {
+        AdGroup adGroup = new AdGroup();
+        adGroup.setId(id);
+        adGroup.setDisplayName(displayName);
+        adGroup.getGroupTypes().add("Unified");
+        User member = new User();
+        member.setId("u1");
+        member.setDisplayName("Jane");
+        adGroup.getUsers().add(member);
+        adGroup.setRoleAssignments(new ArrayList<>(List.of(roleAssignments)));
+        return adGroup;
+    }
+
+    private static RoleAssignment roleAssignment(String id, RoleDefinition roleDefinition) {
+        RoleAssignmentProperty properties = new RoleAssignmentProperty();
+        properties.setPrincipalId("u1");
+        properties.setScope("/subscriptions/s1");
+        properties.setCreatedOn(LocalDateTime.of(2020, 3, 1, 12, 30));
+        RoleAssignment roleAssignment = new RoleAssignment();
+        roleAssignment.setId(id);
+        roleAssignment.setProperties(properties);
+        roleAssignment.setRoleDefinition(roleDefinition);
+        return roleAssignment;
+    }
+
+    private static RoleDefinition roleDefinition(String id) {
+        RoleDefinitionProperty properties = new RoleDefinitionProperty();
+        properties.setRoleName("Owner");
+        RoleDefinition roleDefinition = new RoleDefinition();
+        roleDefinition.setId(id);
+        roleDefinition.setProperties(properties);
+        return roleDefinition;
+    }
+}